@@ -0,0 +1,76 @@
+package com.github.zhufg.benchmark;
+
+import com.github.zhufg.util.RedisUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试公用数据
+ */
+public class BenchmarkData {
+
+    public static RedisUtil.CacheConfig config() {
+        RedisUtil.CacheConfig cacheConfig = new RedisUtil.CacheConfig();
+        cacheConfig.setExpireTimeMs(10 * 60 * 1000);
+        cacheConfig.setMaxWaitTimeMs(5000);
+        cacheConfig.setWaitSleepTimeMs(5);
+        return cacheConfig;
+    }
+
+    public static List<Item> items(int size) {
+        List<Item> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Item item = new Item();
+            item.setId(i);
+            item.setName("item-" + i);
+            item.setPrice(i * 1.5);
+            item.setTags("tag" + (i % 10) + ",common");
+            items.add(item);
+        }
+        return items;
+    }
+
+    public static <T> T failLoad() {
+        throw new IllegalStateException("benchmark expects a cache hit");
+    }
+
+    public static class Item {
+        private long id;
+        private String name;
+        private double price;
+        private String tags;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public void setPrice(double price) {
+            this.price = price;
+        }
+
+        public String getTags() {
+            return tags;
+        }
+
+        public void setTags(String tags) {
+            this.tags = tags;
+        }
+    }
+}
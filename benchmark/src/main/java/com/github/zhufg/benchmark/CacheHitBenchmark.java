@@ -0,0 +1,71 @@
+package com.github.zhufg.benchmark;
+
+import com.github.zhufg.util.CacheCodecs;
+import com.github.zhufg.util.NearCache;
+import com.github.zhufg.util.RedisUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 命中路径耗时：redis命中后的解析，对比json字符串、codec和一级缓存
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheHitBenchmark {
+    private static final String KEY = "bench:hit";
+
+    @Param({"10", "1000"})
+    private int listSize;
+
+    private RedisTemplate redisTemplate;
+    private RedisUtil.CacheConfig jsonConfig;
+    private RedisUtil.CacheConfig codecConfig;
+    private RedisUtil.CacheConfig nearConfig;
+
+    @Setup
+    public void setup() throws TimeoutException {
+        redisTemplate = new InMemoryRedis().template();
+        jsonConfig = BenchmarkData.config();
+        codecConfig = BenchmarkData.config();
+        codecConfig.setCodec(CacheCodecs.BINARY_CODEC);
+        nearConfig = BenchmarkData.config();
+        nearConfig.setNearCache(new NearCache(1000, 64 * 1024 * 1024));
+        List<BenchmarkData.Item> items = BenchmarkData.items(listSize);
+        RedisUtil.getListCache(KEY, BenchmarkData.Item.class, () -> items, redisTemplate, jsonConfig);
+        RedisUtil.getListCache(KEY + ":codec", BenchmarkData.Item.class, () -> items, redisTemplate, codecConfig);
+        RedisUtil.getListCache(KEY + ":near", BenchmarkData.Item.class, () -> items, redisTemplate, nearConfig);
+    }
+
+    @Benchmark
+    public List jsonHit() throws TimeoutException {
+        return RedisUtil.getListCache(KEY, BenchmarkData.Item.class, BenchmarkData::failLoad, redisTemplate, jsonConfig);
+    }
+
+    @Benchmark
+    public List codecHit() throws TimeoutException {
+        return RedisUtil.getListCache(KEY + ":codec", BenchmarkData.Item.class, BenchmarkData::failLoad, redisTemplate, codecConfig);
+    }
+
+    @Benchmark
+    public List nearCacheHit() throws TimeoutException {
+        return RedisUtil.getListCache(KEY + ":near", BenchmarkData.Item.class, BenchmarkData::failLoad, redisTemplate, nearConfig);
+    }
+}
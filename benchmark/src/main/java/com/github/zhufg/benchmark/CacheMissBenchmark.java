@@ -0,0 +1,84 @@
+package com.github.zhufg.benchmark;
+
+import com.github.zhufg.util.RedisUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 未命中路径
+ * missAndLoad：每个线程每次使用新key，测量锁+加载+写入的开销
+ * stampede：所有线程同一时间读取同一个刚失效的key，测量等待方式和重复加载
+ * 命令延迟100微秒，模拟同机房网络往返，可通过 -p latencyMicros 调整
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class CacheMissBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @org.openjdk.jmh.annotations.Param({"100"})
+        private long latencyMicros;
+        private RedisTemplate redisTemplate;
+        private RedisUtil.CacheConfig cacheConfig;
+        private List<BenchmarkData.Item> items;
+        private final AtomicLong keys = new AtomicLong();
+        //stampede每轮的key，由第一个加载的线程推进
+        private final AtomicLong round = new AtomicLong();
+        private final LongAdder loads = new LongAdder();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            redisTemplate = new InMemoryRedis(latencyMicros).template();
+            cacheConfig = BenchmarkData.config();
+            items = BenchmarkData.items(100);
+        }
+    }
+
+    @Benchmark
+    public List missAndLoad(Shared shared) throws TimeoutException {
+        String key = "bench:miss:" + shared.keys.incrementAndGet();
+        return RedisUtil.getListCache(key, BenchmarkData.Item.class, () -> shared.items, shared.redisTemplate, shared.cacheConfig);
+    }
+
+    @Benchmark
+    public List stampede(Shared shared) throws TimeoutException {
+        long current = shared.round.get();
+        String key = "bench:stampede:" + current;
+        return RedisUtil.getListCache(key, BenchmarkData.Item.class, () -> {
+            shared.loads.increment();
+            //加载耗时1ms，加载完成后下一轮使用新key，相当于key失效
+            sleep(1);
+            shared.round.compareAndSet(current, current + 1);
+            return shared.items;
+        }, shared.redisTemplate, shared.cacheConfig);
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
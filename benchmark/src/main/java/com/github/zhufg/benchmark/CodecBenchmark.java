@@ -0,0 +1,71 @@
+package com.github.zhufg.benchmark;
+
+import com.alibaba.fastjson.TypeReference;
+import com.github.zhufg.util.CacheCodec;
+import com.github.zhufg.util.CacheCodecs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * codec本身的编码、解码开销，不经过redis和RedisUtil，按codec和列表长度对比
+ * JSON为基准，BINARY、POSITIONAL需要比JSON快或更小才有意义，编码后的字节数在setup中输出
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+    private static final Type LIST_TYPE = new TypeReference<List<BenchmarkData.Item>>() {}.getType();
+
+    @Param({"JSON", "BINARY", "POSITIONAL"})
+    private String codecName;
+
+    @Param({"10", "100", "1000", "10000"})
+    private int listSize;
+
+    private CacheCodec codec;
+    private List<BenchmarkData.Item> items;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        switch (codecName) {
+            case "BINARY":
+                codec = CacheCodecs.BINARY_CODEC;
+                break;
+            case "POSITIONAL":
+                codec = CacheCodecs.POSITIONAL_CODEC;
+                break;
+            default:
+                codec = CacheCodecs.JSON_CODEC;
+        }
+        items = BenchmarkData.items(listSize);
+        encoded = codec.encode(items);
+        System.out.println(codecName + " listSize:" + listSize + " bytes:" + encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(items);
+    }
+
+    @Benchmark
+    public List decode() {
+        return codec.decode(encoded, 0, encoded.length, LIST_TYPE);
+    }
+}
@@ -0,0 +1,312 @@
+package com.github.zhufg.benchmark;
+
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内存版redis，只实现RedisUtil用到的命令，用于离线基准测试
+ * RedisConnection和RedisConnectionFactory通过动态代理实现，未实现的命令返回默认值
+ * 可以设置每条命令的固定延迟，模拟网络往返
+ */
+public class InMemoryRedis {
+    private final Map<String, Entry> data = new ConcurrentHashMap<>();
+    private final Map<String, String> scripts = new ConcurrentHashMap<>();
+    private final long commandLatencyNanos;
+
+    public InMemoryRedis() {
+        this(0);
+    }
+
+    public InMemoryRedis(long commandLatencyMicros) {
+        this.commandLatencyNanos = TimeUnit.MICROSECONDS.toNanos(commandLatencyMicros);
+    }
+
+    public RedisTemplate<String, String> template() {
+        RedisConnectionFactory factory = (RedisConnectionFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{RedisConnectionFactory.class}, (proxy, method, args) -> {
+                    if ("getConnection".equals(method.getName())) {
+                        return newConnection();
+                    }
+                    return defaultValue(method);
+                });
+        RedisTemplate<String, String> template = new RedisTemplate<>();
+        template.setConnectionFactory(factory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new StringRedisSerializer());
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    public void clear() {
+        data.clear();
+    }
+
+    public void delete(String key) {
+        data.remove(key);
+    }
+
+    private RedisConnection newConnection() {
+        return (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{RedisConnection.class}, new ConnectionHandler());
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+        private List<Object> pipeline;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            switch (name) {
+                case "openPipeline":
+                    pipeline = new ArrayList<>();
+                    return null;
+                case "closePipeline":
+                    List<Object> results = pipeline == null ? Collections.emptyList() : pipeline;
+                    pipeline = null;
+                    //与redis一致，pipeline中命令的错误在关闭时统一抛出
+                    for (Object result : results) {
+                        if (result instanceof Exception) {
+                            throw new RedisPipelineException((Exception) result, results);
+                        }
+                    }
+                    return results;
+                case "isPipelined":
+                    return pipeline != null;
+                case "isQueueing":
+                case "isClosed":
+                    return false;
+                case "close":
+                    return null;
+                default:
+                    break;
+            }
+            latency();
+            if (pipeline != null) {
+                try {
+                    pipeline.add(command(name, args));
+                } catch (RuntimeException e) {
+                    pipeline.add(e);
+                }
+                return defaultValue(method);
+            }
+            return command(name, args);
+        }
+    }
+
+    private Object command(String name, Object[] args) {
+        switch (name) {
+            case "get":
+                return value(key(args[0]));
+            case "set":
+                if (args.length == 2) {
+                    data.put(key(args[0]), new Entry((byte[]) args[1], 0));
+                    return Boolean.TRUE;
+                }
+                return set(key(args[0]), (byte[]) args[1], (Expiration) args[2], (RedisStringCommands.SetOption) args[3]);
+            case "setEx":
+                data.put(key(args[0]), new Entry((byte[]) args[2], expireAt(TimeUnit.SECONDS.toMillis((Long) args[1]))));
+                return Boolean.TRUE;
+            case "pSetEx":
+                data.put(key(args[0]), new Entry((byte[]) args[2], expireAt((Long) args[1])));
+                return Boolean.TRUE;
+            case "setNX":
+                return data.putIfAbsent(key(args[0]), new Entry((byte[]) args[1], 0)) == null;
+            case "mGet": {
+                List<byte[]> values = new ArrayList<>();
+                for (byte[] key : (byte[][]) args[0]) {
+                    values.add(value(key(key)));
+                }
+                return values;
+            }
+            case "del": {
+                long n = 0;
+                for (byte[] key : (byte[][]) args[0]) {
+                    if (data.remove(key(key)) != null) {
+                        n++;
+                    }
+                }
+                return n;
+            }
+            case "incr":
+                return incrBy(key(args[0]), 1, 0);
+            case "incrBy":
+                return incrBy(key(args[0]), (Long) args[1], 0);
+            case "publish":
+                return 0L;
+            case "setBit":
+                return setBit(key(args[0]), (Long) args[1], (Boolean) args[2]);
+            case "getBit":
+                return getBit(key(args[0]), (Long) args[1]);
+            case "evalSha": {
+                String script = scripts.get(args[0] instanceof String ? (String) args[0] : key(args[0]));
+                if (script == null) {
+                    throw new RedisSystemException("NOSCRIPT No matching script", null);
+                }
+                return script(script, (byte[][]) args[3]);
+            }
+            case "eval": {
+                String script = key(args[0]);
+                scripts.put(sha1(script), script);
+                return script(script, (byte[][]) args[3]);
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 按内容识别RedisUtil中的脚本，未识别的脚本抛出异常
+     */
+    private synchronized Object script(String script, byte[][] keysAndArgs) {
+        String key = key(keysAndArgs[0]);
+        if (script.contains("'INCR'")) {
+            return incrBy(key, 1, TimeUnit.SECONDS.toMillis(Long.parseLong(key(keysAndArgs[1]))));
+        }
+        if (script.contains("'INCRBY'")) {
+            long ttlSec = Long.parseLong(key(keysAndArgs[2]));
+            return incrBy(key, Long.parseLong(key(keysAndArgs[1])), TimeUnit.SECONDS.toMillis(ttlSec));
+        }
+        byte[] current = value(key);
+        boolean owned = current != null && Arrays.equals(current, keysAndArgs[1]);
+        if (script.contains("'DEL'")) {
+            return owned && data.remove(key) != null ? 1L : 0L;
+        }
+        if (script.contains("'PEXPIRE'")) {
+            if (!owned) {
+                return 0L;
+            }
+            data.put(key, new Entry(current, expireAt(Long.parseLong(key(keysAndArgs[2])))));
+            return 1L;
+        }
+        throw new UnsupportedOperationException("script not supported:" + script);
+    }
+
+    private Boolean set(String key, byte[] value, Expiration expiration, RedisStringCommands.SetOption option) {
+        long expireAt = expiration == null || expiration.isPersistent() ? 0 : expireAt(expiration.getExpirationTimeInMilliseconds());
+        Entry entry = new Entry(value, expireAt);
+        if (option == RedisStringCommands.SetOption.SET_IF_ABSENT) {
+            Entry exist = data.get(key);
+            if (exist != null && !exist.expired()) {
+                return Boolean.FALSE;
+            }
+            return exist == null ? data.putIfAbsent(key, entry) == null : data.replace(key, exist, entry);
+        }
+        data.put(key, entry);
+        return Boolean.TRUE;
+    }
+
+    private byte[] value(String key) {
+        Entry entry = data.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expired()) {
+            data.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private synchronized long incrBy(String key, long delta, long expireMs) {
+        byte[] current = value(key);
+        long value = (current == null ? 0 : Long.parseLong(new String(current, StandardCharsets.UTF_8))) + delta;
+        long expireAt = current == null ? expireAt(expireMs) : data.get(key).expireAt;
+        data.put(key, new Entry(String.valueOf(value).getBytes(StandardCharsets.UTF_8), expireAt));
+        return value;
+    }
+
+    private synchronized Boolean setBit(String key, long offset, boolean bit) {
+        byte[] current = value(key);
+        int index = (int) (offset >>> 3);
+        byte[] updated = current == null ? new byte[index + 1] : (current.length > index ? current.clone() : Arrays.copyOf(current, index + 1));
+        int mask = 0x80 >>> (offset & 7);
+        boolean old = (updated[index] & mask) != 0;
+        updated[index] = (byte) (bit ? updated[index] | mask : updated[index] & ~mask);
+        data.put(key, new Entry(updated, 0));
+        return old;
+    }
+
+    private Boolean getBit(String key, long offset) {
+        byte[] current = value(key);
+        int index = (int) (offset >>> 3);
+        return current != null && current.length > index && (current[index] & (0x80 >>> (offset & 7))) != 0;
+    }
+
+    private void latency() {
+        if (commandLatencyNanos <= 0) {
+            return;
+        }
+        long end = System.nanoTime() + commandLatencyNanos;
+        while (System.nanoTime() < end) {
+            //busy wait
+        }
+    }
+
+    private static long expireAt(long ttlMs) {
+        return ttlMs <= 0 ? 0 : System.currentTimeMillis() + ttlMs;
+    }
+
+    private static String sha1(String script) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String key(Object raw) {
+        return new String((byte[]) raw, StandardCharsets.UTF_8);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == long.class || type == int.class || type == short.class || type == byte.class) {
+            return type == long.class ? (Object) 0L : (Object) 0;
+        }
+        if (type == double.class || type == float.class) {
+            return type == double.class ? (Object) 0D : (Object) 0F;
+        }
+        return null;
+    }
+
+    private static class Entry {
+        private final byte[] value;
+        private final long expireAt;
+
+        private Entry(byte[] value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        private boolean expired() {
+            return expireAt > 0 && expireAt < System.currentTimeMillis();
+        }
+    }
+}
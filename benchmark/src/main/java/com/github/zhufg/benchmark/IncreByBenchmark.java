@@ -0,0 +1,63 @@
+package com.github.zhufg.benchmark;
+
+import com.github.zhufg.util.RedisBufferedCounter;
+import com.github.zhufg.util.RedisUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * increBy吞吐，key数量越少竞争越集中
+ * bufferedIncrement为本地聚合后定时批量写入的计数
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class IncreByBenchmark {
+
+    @Param({"1", "1000"})
+    private int keyCount;
+
+    private RedisTemplate redisTemplate;
+    private RedisBufferedCounter counter;
+
+    @Setup
+    public void setup() {
+        redisTemplate = new InMemoryRedis().template();
+        counter = new RedisBufferedCounter(redisTemplate, 60L, TimeUnit.SECONDS, 200, 10000);
+    }
+
+    @TearDown
+    public void tearDown() {
+        counter.close();
+    }
+
+    @Benchmark
+    public Long increBy() {
+        String key = "bench:counter:" + ThreadLocalRandom.current().nextInt(keyCount);
+        return RedisUtil.increBy(redisTemplate, key, 60L, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void bufferedIncrement() {
+        counter.increment("bench:counter:" + ThreadLocalRandom.current().nextInt(keyCount));
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.zhufg.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.TypeReference;
+import com.github.zhufg.util.CacheCodecs;
+import com.github.zhufg.util.RedisUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 序列化开销，按列表长度对比
+ * jsonString：原有的json字符串往返
+ * 其余为经过RedisUtil.set/getListCache的完整往返
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    private static final String KEY = "bench:serialize";
+
+    @Param({"10", "100", "1000", "10000"})
+    private int listSize;
+
+    private List<BenchmarkData.Item> items;
+    private RedisTemplate redisTemplate;
+    private RedisUtil.CacheConfig jsonConfig;
+    private RedisUtil.CacheConfig codecConfig;
+    private RedisUtil.CacheConfig binaryConfig;
+    private RedisUtil.CacheConfig positionalConfig;
+    private RedisUtil.CacheConfig compressConfig;
+
+    @Setup
+    public void setup() {
+        items = BenchmarkData.items(listSize);
+        redisTemplate = new InMemoryRedis().template();
+        jsonConfig = BenchmarkData.config();
+        codecConfig = BenchmarkData.config();
+        codecConfig.setCodec(CacheCodecs.JSON_CODEC);
+        binaryConfig = BenchmarkData.config();
+        binaryConfig.setCodec(CacheCodecs.BINARY_CODEC);
+        positionalConfig = BenchmarkData.config();
+        positionalConfig.setCodec(CacheCodecs.POSITIONAL_CODEC);
+        compressConfig = BenchmarkData.config();
+        compressConfig.setCodec(CacheCodecs.BINARY_CODEC);
+        compressConfig.setCompressThresholdBytes(1024);
+    }
+
+    @Benchmark
+    public List jsonString() {
+        String value = JSON.toJSONString(items);
+        return JSON.parseObject(value, new TypeReference<List<BenchmarkData.Item>>() {});
+    }
+
+    @Benchmark
+    public List defaultRoundTrip() {
+        return roundTrip(jsonConfig);
+    }
+
+    @Benchmark
+    public List jsonCodecRoundTrip() {
+        return roundTrip(codecConfig);
+    }
+
+    @Benchmark
+    public List binaryCodecRoundTrip() {
+        return roundTrip(binaryConfig);
+    }
+
+    @Benchmark
+    public List positionalCodecRoundTrip() {
+        return roundTrip(positionalConfig);
+    }
+
+    @Benchmark
+    public List compressedRoundTrip() {
+        return roundTrip(compressConfig);
+    }
+
+    private List roundTrip(RedisUtil.CacheConfig cacheConfig) {
+        RedisUtil.set(redisTemplate, KEY, items, 60, TimeUnit.SECONDS, cacheConfig);
+        return RedisUtil.getListCache(redisTemplate, KEY, BenchmarkData.Item.class);
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.zhufg.util;
+
+import java.lang.reflect.Type;
+
+/**
+ * 缓存内容编解码，直接处理byte[]，不再经过String中转
+ * 写入redis时会带上id作为格式标识，读取时按标识选择codec，因此切换codec时旧数据仍可读取
+ * 自定义实现需要通过 CacheCodecs.register 注册，id 1-15 为内置保留
+ */
+public interface CacheCodec {
+
+    byte id();
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, int offset, int length, Type type);
+}
@@ -0,0 +1,705 @@
+package com.github.zhufg.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.parser.Feature;
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.parser.deserializer.JavaBeanDeserializer;
+import com.alibaba.fastjson.serializer.JavaBeanSerializer;
+import com.alibaba.fastjson.serializer.SerializeConfig;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.alibaba.fastjson.util.FieldInfo;
+import com.alibaba.fastjson.util.JavaBeanInfo;
+import com.alibaba.fastjson.util.TypeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 内置codec及注册表
+ * JSON：fastjson直接输出utf-8字节，与原有格式内容一致
+ * BINARY：二进制格式，带类型标识，数字按变长整数、字符串按长度前缀输出，保留字段名，直接读写对象字段
+ *         按字段名读取，增删字段或调整字段顺序后新旧版本仍可互相读取，滚动发布时可以使用
+ * POSITIONAL：fastjson文本，对象按字段顺序输出为数组，不含字段名
+ *         字段顺序是数据格式的一部分，不同版本字段顺序不一致时会读到错误的字段且不报错
+ *         滚动发布期间新旧版本同时读写会出错，只能配合版本化的key（如CacheNamespace）使用
+ */
+public final class CacheCodecs {
+    public static final CacheCodec JSON_CODEC = new JsonCodec();
+    public static final CacheCodec POSITIONAL_CODEC = new PositionalCodec();
+    public static final CacheCodec BINARY_CODEC = new BinaryCodec();
+    private static final CacheCodec[] CODECS = new CacheCodec[256];
+
+    static {
+        register(JSON_CODEC);
+        register(POSITIONAL_CODEC);
+        register(BINARY_CODEC);
+    }
+
+    private CacheCodecs() {
+    }
+
+    public static synchronized void register(CacheCodec codec) {
+        CacheCodec exist = CODECS[codec.id() & 0xFF];
+        if (exist != null && exist != codec) {
+            throw new IllegalStateException("codec id already registered:" + codec.id());
+        }
+        CODECS[codec.id() & 0xFF] = codec;
+    }
+
+    public static CacheCodec get(byte id) {
+        CacheCodec codec = CODECS[id & 0xFF];
+        if (codec == null) {
+            throw new IllegalStateException("unknown codec id:" + id);
+        }
+        return codec;
+    }
+
+    /**
+     * 速度优先的压缩，只依赖jdk
+     */
+    static byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] decompress(byte[] bytes, int offset, int length, int rawLength) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(bytes, offset, length);
+            byte[] result = new byte[rawLength];
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(result, n, rawLength - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != rawLength) {
+                throw new IllegalStateException("decompress length error, expect:" + rawLength + " actual:" + n);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("decompress error", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static class JsonCodec implements CacheCodec {
+        @Override
+        public byte id() {
+            return 1;
+        }
+
+        @Override
+        public byte[] encode(Object value) {
+            return JSON.toJSONBytes(value);
+        }
+
+        @Override
+        public <T> T decode(byte[] bytes, int offset, int length, Type type) {
+            return JSON.parseObject(bytes, offset, length, StandardCharsets.UTF_8, type);
+        }
+    }
+
+    /**
+     * 见类注释，字段顺序变化后静默读错
+     */
+    private static class PositionalCodec implements CacheCodec {
+        @Override
+        public byte id() {
+            return 2;
+        }
+
+        @Override
+        public byte[] encode(Object value) {
+            return JSON.toJSONBytes(value, SerializerFeature.BeanToArray);
+        }
+
+        @Override
+        public <T> T decode(byte[] bytes, int offset, int length, Type type) {
+            return JSON.parseObject(bytes, offset, length, StandardCharsets.UTF_8, type, Feature.SupportArrayToBean);
+        }
+    }
+
+    /**
+     * 逐个值输出 类型标识+内容，字段名和字段取值使用fastjson的getter/setter规则，与JSON格式的字段映射一致
+     * 写入时直接从对象读取字段，读取时直接创建目标类型并设置字段，不经过JSONObject/JSONArray
+     * 没有无参构造方法、使用builder等fastjson特殊处理的类型，该部分先还原为JSONObject/JSONArray再按fastjson转换
+     */
+    private static class BinaryCodec implements CacheCodec {
+        private static final byte NULL = 0;
+        private static final byte FALSE = 1;
+        private static final byte TRUE = 2;
+        //zigzag变长整数
+        private static final byte INTEGER = 3;
+        private static final byte DOUBLE = 4;
+        private static final byte FLOAT = 5;
+        private static final byte STRING = 6;
+        private static final byte ARRAY = 7;
+        private static final byte OBJECT = 8;
+        private static final byte DECIMAL = 9;
+        private static final byte BIG_INTEGER = 10;
+        //毫秒数
+        private static final byte DATE = 11;
+        //其他类型按json文本输出
+        private static final byte JSON_TEXT = 12;
+        //不按字段读写的类型
+        private static final BeanWriter NOT_BEAN_WRITER = new BeanWriter(null);
+        private static final BeanReader NOT_BEAN_READER = new BeanReader(null, null);
+        private static final ConcurrentMap<Class<?>, BeanWriter> WRITERS = new ConcurrentHashMap<>();
+        private static final ConcurrentMap<Type, BeanReader> READERS = new ConcurrentHashMap<>();
+        private static final Map<Type, Class<?>> PRIMITIVE_WRAPPERS = new HashMap<>();
+
+        static {
+            PRIMITIVE_WRAPPERS.put(boolean.class, Boolean.class);
+            PRIMITIVE_WRAPPERS.put(byte.class, Byte.class);
+            PRIMITIVE_WRAPPERS.put(short.class, Short.class);
+            PRIMITIVE_WRAPPERS.put(char.class, Character.class);
+            PRIMITIVE_WRAPPERS.put(int.class, Integer.class);
+            PRIMITIVE_WRAPPERS.put(long.class, Long.class);
+            PRIMITIVE_WRAPPERS.put(float.class, Float.class);
+            PRIMITIVE_WRAPPERS.put(double.class, Double.class);
+        }
+
+        @Override
+        public byte id() {
+            return 3;
+        }
+
+        @Override
+        public byte[] encode(Object value) {
+            Output out = new Output();
+            write(out, value);
+            return out.toByteArray();
+        }
+
+        @Override
+        public <T> T decode(byte[] bytes, int offset, int length, Type type) {
+            int[] position = {offset};
+            Object value = read(bytes, position, type);
+            if (position[0] != offset + length) {
+                throw new IllegalStateException("binary codec length error, expect:" + length + " actual:" + (position[0] - offset));
+            }
+            return (T) value;
+        }
+
+        private static void write(Output out, Object value) {
+            if (value == null) {
+                out.write(NULL);
+            } else if (value instanceof Boolean) {
+                out.write((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                out.write(INTEGER);
+                long n = ((Number) value).longValue();
+                writeVarLong(out, (n << 1) ^ (n >> 63));
+            } else if (value instanceof Double) {
+                out.write(DOUBLE);
+                writeFixed(out, Double.doubleToLongBits((Double) value), 8);
+            } else if (value instanceof Float) {
+                out.write(FLOAT);
+                writeFixed(out, Float.floatToIntBits((Float) value), 4);
+            } else if (value instanceof String || value instanceof Character) {
+                out.write(STRING);
+                writeString(out, value.toString());
+            } else if (value instanceof Enum) {
+                out.write(STRING);
+                writeString(out, ((Enum<?>) value).name());
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                out.write(OBJECT);
+                writeVarLong(out, map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeString(out, String.valueOf(entry.getKey()));
+                    write(out, entry.getValue());
+                }
+            } else if (value instanceof Collection) {
+                Collection<?> collection = (Collection<?>) value;
+                out.write(ARRAY);
+                writeVarLong(out, collection.size());
+                for (Object item : collection) {
+                    write(out, item);
+                }
+            } else if (value.getClass().isArray()) {
+                int size = Array.getLength(value);
+                out.write(ARRAY);
+                writeVarLong(out, size);
+                for (int i = 0; i < size; i++) {
+                    write(out, Array.get(value, i));
+                }
+            } else if (value instanceof BigDecimal) {
+                out.write(DECIMAL);
+                writeString(out, value.toString());
+            } else if (value instanceof BigInteger) {
+                out.write(BIG_INTEGER);
+                writeString(out, value.toString());
+            } else if (value instanceof Date) {
+                out.write(DATE);
+                long n = ((Date) value).getTime();
+                writeVarLong(out, (n << 1) ^ (n >> 63));
+            } else {
+                BeanWriter writer = writer(value.getClass());
+                if (writer == NOT_BEAN_WRITER) {
+                    out.write(JSON_TEXT);
+                    writeString(out, JSON.toJSONString(value));
+                } else {
+                    writeBean(out, value, writer);
+                }
+            }
+        }
+
+        /**
+         * 与json一致，值为空的字段不输出
+         */
+        private static void writeBean(Output out, Object bean, BeanWriter writer) {
+            FieldInfo[] getters = writer.getters;
+            Object[] values = new Object[getters.length];
+            int size = 0;
+            try {
+                for (int i = 0; i < getters.length; i++) {
+                    values[i] = getters[i].get(bean);
+                    if (values[i] != null) {
+                        size++;
+                    }
+                }
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("binary codec get field error, class:" + bean.getClass().getName(), e);
+            }
+            out.write(OBJECT);
+            writeVarLong(out, size);
+            for (int i = 0; i < getters.length; i++) {
+                if (values[i] != null) {
+                    out.write(writer.names[i], 0, writer.names[i].length);
+                    write(out, values[i]);
+                }
+            }
+        }
+
+        /**
+         * fastjson按JavaBean输出的类型返回其getter，其余返回NOT_BEAN_WRITER
+         */
+        private static BeanWriter writer(Class<?> clazz) {
+            BeanWriter writer = WRITERS.get(clazz);
+            if (writer == null) {
+                writer = NOT_BEAN_WRITER;
+                if (SerializeConfig.getGlobalInstance().getObjectWriter(clazz) instanceof JavaBeanSerializer) {
+                    writer = new BeanWriter(TypeUtils.computeGetters(clazz, null).toArray(new FieldInfo[0]));
+                }
+                WRITERS.putIfAbsent(clazz, writer);
+            }
+            return writer;
+        }
+
+        private static Object read(byte[] bytes, int[] position, Type type) {
+            if (!(type instanceof Class) && !(type instanceof ParameterizedType) && !(type instanceof GenericArrayType)) {
+                //未解析的泛型参数
+                type = Object.class;
+            }
+            switch (bytes[position[0]]) {
+                case NULL:
+                    position[0]++;
+                    return null;
+                case OBJECT:
+                    return readObject(bytes, position, type);
+                case ARRAY:
+                    return readArray(bytes, position, type);
+                case INTEGER:
+                    if (type == long.class || type == Long.class) {
+                        position[0]++;
+                        return readZigzag(bytes, position);
+                    }
+                    if (type == int.class || type == Integer.class) {
+                        position[0]++;
+                        return (int) readZigzag(bytes, position);
+                    }
+                    return cast(readTree(bytes, position), type);
+                default:
+                    return cast(readTree(bytes, position), type);
+            }
+        }
+
+        private static Object readObject(byte[] bytes, int[] position, Type type) {
+            Class<?> clazz = TypeUtils.getClass(type);
+            if (clazz == Object.class || clazz == JSONObject.class || Map.class.isAssignableFrom(clazz)) {
+                return readMap(bytes, position, type, clazz);
+            }
+            BeanReader reader = reader(type, clazz);
+            if (reader == NOT_BEAN_READER) {
+                return cast(readTree(bytes, position), type);
+            }
+            position[0]++;
+            int size = (int) readVarLong(bytes, position);
+            try {
+                Object bean = reader.constructor.newInstance();
+                for (int i = 0; i < size; i++) {
+                    FieldInfo setter = reader.setter(bytes, position);
+                    if (setter == null) {
+                        //新版本增加的字段
+                        readTree(bytes, position);
+                        continue;
+                    }
+                    Object value = read(bytes, position, setter.fieldType);
+                    if (value == null && setter.fieldClass.isPrimitive()) {
+                        continue;
+                    }
+                    if (setter.getOnly) {
+                        //只有getter的集合字段，加入已有的集合
+                        Object current = setter.method.invoke(bean);
+                        if (current instanceof Collection && value instanceof Collection) {
+                            ((Collection) current).addAll((Collection) value);
+                        } else if (current instanceof Map && value instanceof Map) {
+                            ((Map) current).putAll((Map) value);
+                        }
+                        continue;
+                    }
+                    setter.set(bean, value);
+                }
+                return bean;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("binary codec set field error, type:" + type.getTypeName(), e);
+            }
+        }
+
+        private static Object readMap(byte[] bytes, int[] position, Type type, Class<?> clazz) {
+            Map map;
+            if (clazz == Object.class || clazz == JSONObject.class) {
+                map = new JSONObject(true);
+            } else if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+                map = SortedMap.class.isAssignableFrom(clazz) ? new TreeMap() : new LinkedHashMap();
+            } else {
+                try {
+                    map = (Map) clazz.getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException e) {
+                    return cast(readTree(bytes, position), type);
+                }
+            }
+            Type keyType = typeArgument(type, 0);
+            Type valueType = typeArgument(type, 1);
+            position[0]++;
+            int size = (int) readVarLong(bytes, position);
+            for (int i = 0; i < size; i++) {
+                String key = readString(bytes, position);
+                map.put(keyType == String.class || keyType == Object.class ? key : cast(key, keyType), read(bytes, position, valueType));
+            }
+            return map;
+        }
+
+        private static Object readArray(byte[] bytes, int[] position, Type type) {
+            Class<?> clazz = TypeUtils.getClass(type);
+            if (clazz.isArray()) {
+                Type componentType = type instanceof GenericArrayType ? ((GenericArrayType) type).getGenericComponentType() : clazz.getComponentType();
+                Class<?> componentClass = TypeUtils.getClass(componentType);
+                position[0]++;
+                int size = (int) readVarLong(bytes, position);
+                Object array = Array.newInstance(componentClass, size);
+                for (int i = 0; i < size; i++) {
+                    Object item = read(bytes, position, componentType);
+                    if (item != null) {
+                        Array.set(array, i, item);
+                    }
+                }
+                return array;
+            }
+            Collection collection;
+            if (clazz == Object.class || clazz == JSONArray.class) {
+                collection = new JSONArray();
+            } else if (!Collection.class.isAssignableFrom(clazz)) {
+                return cast(readTree(bytes, position), type);
+            } else if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+                collection = SortedSet.class.isAssignableFrom(clazz) ? new TreeSet() : Set.class.isAssignableFrom(clazz) ? new LinkedHashSet() : new ArrayList();
+            } else {
+                try {
+                    collection = (Collection) clazz.getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException e) {
+                    return cast(readTree(bytes, position), type);
+                }
+            }
+            Type itemType = typeArgument(type, 0);
+            position[0]++;
+            int size = (int) readVarLong(bytes, position);
+            for (int i = 0; i < size; i++) {
+                collection.add(read(bytes, position, itemType));
+            }
+            return collection;
+        }
+
+        private static Type typeArgument(Type type, int index) {
+            if (type instanceof ParameterizedType) {
+                Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+                if (arguments.length > index) {
+                    return arguments[index];
+                }
+            }
+            return Object.class;
+        }
+
+        private static Object cast(Object value, Type type) {
+            if (value == null || type == Object.class || (type instanceof Class && ((Class<?>) type).isInstance(value))
+                    || value.getClass() == PRIMITIVE_WRAPPERS.get(type)) {
+                return value;
+            }
+            return TypeUtils.cast(value, type, ParserConfig.getGlobalInstance());
+        }
+
+        /**
+         * fastjson按JavaBean解析且有无参构造方法的类型返回其setter，其余返回NOT_BEAN_READER
+         */
+        private static BeanReader reader(Type type, Class<?> clazz) {
+            BeanReader reader = READERS.get(type);
+            if (reader == null) {
+                reader = NOT_BEAN_READER;
+                ParserConfig config = ParserConfig.getGlobalInstance();
+                if (!clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers()) && config.getDeserializer(type) instanceof JavaBeanDeserializer) {
+                    JavaBeanInfo beanInfo = JavaBeanInfo.build(clazz, type, config.propertyNamingStrategy);
+                    if (beanInfo.defaultConstructor != null && beanInfo.defaultConstructorParameterSize == 0 && beanInfo.builderClass == null) {
+                        beanInfo.defaultConstructor.setAccessible(true);
+                        reader = new BeanReader(beanInfo.defaultConstructor, beanInfo.fields);
+                    }
+                }
+                READERS.putIfAbsent(type, reader);
+            }
+            return reader;
+        }
+
+        /**
+         * 还原为JSONObject/JSONArray，用于跳过未知字段和fastjson特殊处理的类型
+         */
+        private static Object readTree(byte[] bytes, int[] position) {
+            byte tag = bytes[position[0]++];
+            switch (tag) {
+                case NULL:
+                    return null;
+                case FALSE:
+                    return Boolean.FALSE;
+                case TRUE:
+                    return Boolean.TRUE;
+                case INTEGER: {
+                    long n = readZigzag(bytes, position);
+                    //与json解析一致，int范围内返回Integer
+                    return n == (int) n ? (Object) (int) n : (Object) n;
+                }
+                case DOUBLE:
+                    return Double.longBitsToDouble(readFixed(bytes, position, 8));
+                case FLOAT:
+                    return Float.intBitsToFloat((int) readFixed(bytes, position, 4));
+                case STRING:
+                    return readString(bytes, position);
+                case ARRAY: {
+                    int size = (int) readVarLong(bytes, position);
+                    JSONArray array = new JSONArray(size);
+                    for (int i = 0; i < size; i++) {
+                        array.add(readTree(bytes, position));
+                    }
+                    return array;
+                }
+                case OBJECT: {
+                    int size = (int) readVarLong(bytes, position);
+                    JSONObject object = new JSONObject(size, true);
+                    for (int i = 0; i < size; i++) {
+                        String key = readString(bytes, position);
+                        object.put(key, readTree(bytes, position));
+                    }
+                    return object;
+                }
+                case DECIMAL:
+                    return new BigDecimal(readString(bytes, position));
+                case BIG_INTEGER:
+                    return new BigInteger(readString(bytes, position));
+                case DATE:
+                    return new Date(readZigzag(bytes, position));
+                case JSON_TEXT:
+                    return JSON.parse(readString(bytes, position));
+                default:
+                    throw new IllegalStateException("binary codec unknown tag:" + tag);
+            }
+        }
+
+        private static void writeVarLong(Output out, long n) {
+            while ((n & ~0x7FL) != 0) {
+                out.write((int) ((n & 0x7F) | 0x80));
+                n >>>= 7;
+            }
+            out.write((int) n);
+        }
+
+        private static long readVarLong(byte[] bytes, int[] position) {
+            long n = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = bytes[position[0]++];
+                n |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return n;
+                }
+            }
+            throw new IllegalStateException("binary codec varint too long");
+        }
+
+        private static long readZigzag(byte[] bytes, int[] position) {
+            long zigzag = readVarLong(bytes, position);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private static void writeFixed(Output out, long n, int size) {
+            for (int i = size - 1; i >= 0; i--) {
+                out.write((int) (n >>> (i * 8)));
+            }
+        }
+
+        private static long readFixed(byte[] bytes, int[] position, int size) {
+            long n = 0;
+            for (int i = 0; i < size; i++) {
+                n = (n << 8) | (bytes[position[0]++] & 0xFF);
+            }
+            return n;
+        }
+
+        private static void writeString(Output out, String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, utf8.length);
+            out.write(utf8, 0, utf8.length);
+        }
+
+        private static String readString(byte[] bytes, int[] position) {
+            int length = (int) readVarLong(bytes, position);
+            String value = new String(bytes, position[0], length, StandardCharsets.UTF_8);
+            position[0] += length;
+            return value;
+        }
+
+        /**
+         * 不使用ByteArrayOutputStream，避免每个字节一次同步
+         */
+        private static class Output {
+            private byte[] buffer = new byte[64];
+            private int count;
+
+            private void write(int b) {
+                ensureCapacity(1);
+                buffer[count++] = (byte) b;
+            }
+
+            private void write(byte[] bytes, int offset, int length) {
+                ensureCapacity(length);
+                System.arraycopy(bytes, offset, buffer, count, length);
+                count += length;
+            }
+
+            private void ensureCapacity(int length) {
+                if (count + length > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, count + length));
+                }
+            }
+
+            private byte[] toByteArray() {
+                return Arrays.copyOf(buffer, count);
+            }
+        }
+
+        private static class BeanWriter {
+            private final FieldInfo[] getters;
+            //已编码的字段名 长度+utf-8
+            private final byte[][] names;
+
+            private BeanWriter(FieldInfo[] getters) {
+                this.getters = getters;
+                this.names = getters == null ? null : new byte[getters.length][];
+                for (int i = 0; getters != null && i < getters.length; i++) {
+                    getters[i].setAccessible();
+                    Output out = new Output();
+                    writeString(out, getters[i].name);
+                    names[i] = out.toByteArray();
+                }
+            }
+        }
+
+        private static class BeanReader {
+            private final Constructor<?> constructor;
+            private final FieldInfo[] setters;
+            //字段名的utf-8
+            private final byte[][] names;
+            //别名对应的setter
+            private final Map<String, FieldInfo> alternates = new HashMap<>();
+
+            private BeanReader(Constructor<?> constructor, FieldInfo[] setters) {
+                this.constructor = constructor;
+                this.setters = setters;
+                this.names = setters == null ? null : new byte[setters.length][];
+                for (int i = 0; setters != null && i < setters.length; i++) {
+                    setters[i].setAccessible();
+                    names[i] = setters[i].name.getBytes(StandardCharsets.UTF_8);
+                    for (String name : setters[i].alternateNames) {
+                        alternates.putIfAbsent(name, setters[i]);
+                    }
+                }
+            }
+
+            /**
+             * 读取字段名并返回对应的setter，先按字节比较，不创建字符串
+             */
+            private FieldInfo setter(byte[] bytes, int[] position) {
+                int length = (int) readVarLong(bytes, position);
+                int offset = position[0];
+                position[0] += length;
+                for (int i = 0; i < names.length; i++) {
+                    if (equals(names[i], bytes, offset, length)) {
+                        return setters[i];
+                    }
+                }
+                return alternates.isEmpty() ? null : alternates.get(new String(bytes, offset, length, StandardCharsets.UTF_8));
+            }
+
+            private static boolean equals(byte[] name, byte[] bytes, int offset, int length) {
+                if (name.length != length) {
+                    return false;
+                }
+                for (int i = 0; i < length; i++) {
+                    if (name[i] != bytes[offset + i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+}
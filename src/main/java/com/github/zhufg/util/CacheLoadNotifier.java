@@ -0,0 +1,106 @@
+package com.github.zhufg.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 缓存加载完成通知
+ * 获取到锁的节点加载完成后发布key，等待中的线程收到通知后立即读取，不再按waitSleepTimeMs轮询
+ * 需要CacheConfig开启loadNotify，并且本节点调用过 CacheLoadNotifier.listen(redisTemplate)
+ * 通知丢失时按loadNotifyFallbackMs轮询兜底
+ */
+public class CacheLoadNotifier {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheLoadNotifier.class);
+    public static final String LOADED_CHANNEL = "@$%#cacheLoaded##";
+    private static final byte[] LOADED_CHANNEL_BYTES = LOADED_CHANNEL.getBytes(StandardCharsets.UTF_8);
+    //每个等待方一个future，一个等待方提前退出不影响其他等待方收到通知
+    private static final ConcurrentMap<String, Set<CompletableFuture<Void>>> WAITERS = new ConcurrentHashMap<>();
+    private static volatile boolean listening;
+
+    private CacheLoadNotifier() {
+    }
+
+    /**
+     * 订阅加载完成通道，返回的container由调用方负责stop
+     */
+    public static RedisMessageListenerContainer listen(RedisTemplate redisTemplate) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisTemplate.getConnectionFactory());
+        container.addMessageListener((message, pattern) ->
+                notifyLocal(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(LOADED_CHANNEL));
+        container.afterPropertiesSet();
+        container.start();
+        listening = true;
+        return container;
+    }
+
+    static boolean isListening() {
+        return listening;
+    }
+
+    static void publish(RedisTemplate redisTemplate, String key) {
+        try {
+            byte[] body = key.getBytes(StandardCharsets.UTF_8);
+            redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(LOADED_CHANNEL_BYTES, body));
+        } catch (Exception e) {
+            //通知失败时等待方会轮询兜底
+            LOGGER.error("cache loaded publish error, key:" + key, e);
+        }
+    }
+
+    static void notifyLocal(String key) {
+        Set<CompletableFuture<Void>> signals = WAITERS.remove(key);
+        if (signals != null) {
+            for (CompletableFuture<Void> signal : signals) {
+                signal.complete(null);
+            }
+        }
+    }
+
+    /**
+     * 需要在读取redis之前注册，避免读取和等待之间的通知丢失
+     */
+    static CompletableFuture<Void> register(String key) {
+        CompletableFuture<Void> signal = new CompletableFuture<>();
+        WAITERS.compute(key, (k, signals) -> {
+            Set<CompletableFuture<Void>> current = signals != null ? signals : ConcurrentHashMap.newKeySet();
+            current.add(signal);
+            return current;
+        });
+        return signal;
+    }
+
+    /**
+     * 只移除自己的future，最后一个等待方退出时移除key
+     */
+    static void unregister(String key, CompletableFuture<Void> signal) {
+        WAITERS.computeIfPresent(key, (k, signals) -> {
+            signals.remove(signal);
+            return signals.isEmpty() ? null : signals;
+        });
+    }
+
+    /**
+     * 收到通知或超时返回，中断时抛出，由调用方结束等待
+     */
+    static void await(CompletableFuture<Void> signal, long timeoutMs) throws InterruptedException {
+        try {
+            signal.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            //just ignore
+        }
+    }
+}
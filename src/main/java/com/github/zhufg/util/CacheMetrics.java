@@ -0,0 +1,282 @@
+package com.github.zhufg.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * RedisUtil缓存统计，按key前缀汇总
+ * 默认关闭，CacheMetrics.enable()后开始记录
+ * 记录只使用LongAdder和原子数组，不加锁，可以在生产环境常开
+ *
+ * 轮询：snapshot() 获取各前缀的统计
+ * 推送：addListener 注册监听，每个事件和耗时都会回调，可用于桥接Micrometer，监听实现需要足够轻量
+ */
+public class CacheMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheMetrics.class);
+
+    public enum Event {
+        //一级缓存命中
+        NEAR_HIT,
+        //redis命中
+        HIT,
+        //redis命中空值
+        NULL_HIT,
+        //redis未命中
+        MISS,
+        //布隆过滤器判断不存在
+        BLOOM_REJECT,
+        //等待本jvm内其他线程的加载结果
+        COALESCED,
+        //未获取到分布式锁，进入等待
+        LOCK_WAIT,
+        //等待循环次数
+        WAIT_LOOP,
+        //执行Supplier
+        LOAD,
+        LOAD_ERROR,
+        //后台刷新
+        REFRESH,
+        TIMEOUT,
+        LOCK_FAILED
+    }
+
+    public enum Timer {
+        //Supplier执行耗时
+        LOAD,
+        SERIALIZE,
+        DESERIALIZE,
+        //redis读写耗时
+        REDIS
+    }
+
+    public interface Listener {
+        void onEvent(String prefix, Event event);
+
+        void onTiming(String prefix, Timer timer, long nanos);
+    }
+
+    private static final ConcurrentMap<String, KeyStats> STATS = new ConcurrentHashMap<>();
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile boolean enabled;
+    //默认取第一个':'之前的部分作为前缀
+    private static volatile Function<String, String> prefixExtractor = key -> {
+        int index = key.indexOf(':');
+        return index > 0 ? key.substring(0, index) : key;
+    };
+
+    private CacheMetrics() {
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * key不规范时请控制前缀数量，每个前缀会常驻一份统计
+     */
+    public static void setPrefixExtractor(Function<String, String> extractor) {
+        prefixExtractor = extractor;
+    }
+
+    public static void addListener(Listener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    public static Map<String, KeyStats> snapshot() {
+        return Collections.unmodifiableMap(new HashMap<>(STATS));
+    }
+
+    public static void reset() {
+        STATS.clear();
+    }
+
+    static void record(String key, Event event) {
+        if (!enabled) {
+            return;
+        }
+        String prefix = prefixExtractor.apply(key);
+        stats(prefix).events[event.ordinal()].increment();
+        if (!LISTENERS.isEmpty()) {
+            for (Listener listener : LISTENERS) {
+                try {
+                    listener.onEvent(prefix, event);
+                } catch (Exception e) {
+                    LOGGER.error("cache metrics listener error", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭时返回0，避免调用System.nanoTime
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void recordTime(String key, Timer timer, long begin) {
+        if (begin == 0 || !enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - begin;
+        String prefix = prefixExtractor.apply(key);
+        stats(prefix).timers[timer.ordinal()].record(nanos);
+        if (!LISTENERS.isEmpty()) {
+            for (Listener listener : LISTENERS) {
+                try {
+                    listener.onTiming(prefix, timer, nanos);
+                } catch (Exception e) {
+                    LOGGER.error("cache metrics listener error", e);
+                }
+            }
+        }
+    }
+
+    private static KeyStats stats(String prefix) {
+        KeyStats stats = STATS.get(prefix);
+        if (stats == null) {
+            stats = STATS.computeIfAbsent(prefix, KeyStats::new);
+        }
+        return stats;
+    }
+
+    public static class KeyStats {
+        private final String prefix;
+        private final LongAdder[] events = new LongAdder[Event.values().length];
+        private final Histogram[] timers = new Histogram[Timer.values().length];
+
+        private KeyStats(String prefix) {
+            this.prefix = prefix;
+            for (int i = 0; i < events.length; i++) {
+                events[i] = new LongAdder();
+            }
+            for (int i = 0; i < timers.length; i++) {
+                timers[i] = new Histogram();
+            }
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public long getCount(Event event) {
+            return events[event.ordinal()].sum();
+        }
+
+        public Histogram getHistogram(Timer timer) {
+            return timers[timer.ordinal()];
+        }
+
+        /**
+         * 一级缓存和redis命中（包括空值）占全部请求的比例
+         */
+        public double getHitRatio() {
+            long hits = getCount(Event.NEAR_HIT) + getCount(Event.HIT) + getCount(Event.NULL_HIT) + getCount(Event.BLOOM_REJECT);
+            long total = hits + getCount(Event.MISS);
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    /**
+     * 对数分桶直方图，每个2的幂区间再分为8个子桶，相对误差不超过12.5%
+     */
+    public static class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(index(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param percentile 0-100
+         * @return 所在桶的上界
+         */
+        public long getPercentile(double percentile) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= Math.max(target, 1)) {
+                    return Math.min(upperBound(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        private static int index(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            int sub = (int) (value >>> shift) & (SUB_COUNT - 1);
+            return (shift + 1) * SUB_COUNT + sub;
+        }
+
+        private static long upperBound(int index) {
+            int exponent = index / SUB_COUNT;
+            long sub = index % SUB_COUNT;
+            if (exponent == 0) {
+                return sub;
+            }
+            return ((SUB_COUNT + sub + 1) << (exponent - 1)) - 1;
+        }
+    }
+}
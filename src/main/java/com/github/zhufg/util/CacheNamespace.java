@@ -0,0 +1,118 @@
+package com.github.zhufg.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 缓存命名空间，用于整组失效
+ * 通过CacheConfig挂在缓存上，实际的redis key为 名称:版本:key，版本保存在redis中并在本地缓存versionCacheMs
+ * invalidate只对版本执行一次INCR，旧版本的key不再被访问，到期后自然失效，不需要逐个删除或scan
+ *
+ * 其他节点最多在versionCacheMs后读取到新版本，期间仍返回旧数据
+ * 版本不存在（首次使用或被淘汰）时以当前时间初始化，不会与之前的版本重复
+ */
+public class CacheNamespace {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheNamespace.class);
+    private static final String KEY_PREFIX = "@$%#namespace##";
+    private static final RedisScript<Long> LUA_GET_VERSION = new DefaultRedisScript<>(
+            "local v = redis.call('GET', KEYS[1])"
+                    + " if v then return tonumber(v) end"
+                    + " redis.call('SET', KEYS[1], ARGV[1])"
+                    + " return tonumber(ARGV[1])", Long.class);
+    private static final RedisScript<Long> LUA_INCR_VERSION = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return redis.call('INCR', KEYS[1]) end"
+                    + " redis.call('SET', KEYS[1], ARGV[1])"
+                    + " return tonumber(ARGV[1])", Long.class);
+
+    private final String name;
+    //本地缓存版本的时间 默认1000ms
+    private long versionCacheMs = 1000;
+    private volatile Version current;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    public CacheNamespace(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 加上命名空间和当前版本后的redis key
+     */
+    public String key(RedisTemplate redisTemplate, String key) {
+        return name + ":" + getVersion(redisTemplate) + ":" + key;
+    }
+
+    /**
+     * 本地版本过期时只有一个线程从redis读取，其余线程继续使用旧版本
+     * 读取失败时使用旧版本，没有旧版本时抛出
+     */
+    public long getVersion(RedisTemplate redisTemplate) {
+        Version version = current;
+        long now = System.currentTimeMillis();
+        if (version != null && (now - version.loadedAt < versionCacheMs || !refreshing.compareAndSet(false, true))) {
+            return version.version;
+        }
+        try {
+            long loaded = eval(redisTemplate, LUA_GET_VERSION);
+            current = new Version(loaded, now);
+            return loaded;
+        } catch (RuntimeException e) {
+            if (version == null) {
+                throw e;
+            }
+            LOGGER.error("load namespace version error, namespace:" + name, e);
+            return version.version;
+        } finally {
+            if (version != null) {
+                refreshing.set(false);
+            }
+        }
+    }
+
+    /**
+     * 失效命名空间下的全部缓存，本节点立即生效
+     * @return 新版本
+     */
+    public long invalidate(RedisTemplate redisTemplate) {
+        long version = eval(redisTemplate, LUA_INCR_VERSION);
+        current = new Version(version, System.currentTimeMillis());
+        return version;
+    }
+
+    private long eval(RedisTemplate redisTemplate, RedisScript<Long> script) {
+        try {
+            byte[] rawKey = redisTemplate.getKeySerializer().serialize(KEY_PREFIX + name);
+            byte[] init = String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+            Long version = (Long) redisTemplate.execute((RedisCallback<Long>) connection ->
+                    RedisUtil.evalScript(connection, script, ReturnType.INTEGER, 1, rawKey, init));
+            return version;
+        } catch (Exception e) {
+            throw new RedisUtil.RedisInvalidException("redis namespace version 异常", e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setVersionCacheMs(long versionCacheMs) {
+        this.versionCacheMs = versionCacheMs;
+    }
+
+    private static class Version {
+        private final long version;
+        private final long loadedAt;
+
+        private Version(long version, long loadedAt) {
+            this.version = version;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
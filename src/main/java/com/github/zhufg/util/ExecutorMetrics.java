@@ -0,0 +1,436 @@
+package com.github.zhufg.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ThreadPoolUtil线程池统计，按线程池名称汇总
+ * 默认关闭，ExecutorMetrics.enable()后开始记录；关闭时任务不包装，没有额外开销
+ * 开启时每个任务包装一次，记录排队耗时和执行耗时，只使用LongAdder和CacheMetrics.Histogram，不加锁
+ *
+ * 轮询：snapshot() 获取各线程池的统计，活跃线程数、队列长度等从线程池实时读取
+ * 推送：addListener 注册监听，每个任务完成、拒绝和慢任务都会回调，监听实现需要足够轻量
+ *
+ * 慢任务：执行耗时超过slowTaskMs的任务保留最近的SLOW_TASK_SIZE个
+ * 提交时按callSiteSampleOneIn采样记录调用栈，慢任务命中采样时带上提交位置
+ */
+public class ExecutorMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutorMetrics.class);
+    //每个线程池保留的慢任务数
+    private static final int SLOW_TASK_SIZE = 16;
+
+    public interface Listener {
+        void onTask(String name, long waitNanos, long runNanos, boolean failed);
+
+        void onRejected(String name);
+
+        void onSlowTask(String name, SlowTask slowTask);
+    }
+
+    private static final ConcurrentMap<String, ExecutorStats> STATS = new ConcurrentHashMap<>();
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile boolean enabled;
+    //执行耗时超过该值记录为慢任务 默认1000ms，小于等于0不记录
+    private static volatile long slowTaskNanos = TimeUnit.SECONDS.toNanos(1);
+    //每callSiteSampleOneIn次提交记录一次调用栈 默认100，小于等于0不记录
+    private static volatile int callSiteSampleOneIn = 100;
+
+    private ExecutorMetrics() {
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setSlowTaskMs(long slowTaskMs) {
+        slowTaskNanos = TimeUnit.MILLISECONDS.toNanos(slowTaskMs);
+    }
+
+    /**
+     * 记录调用栈需要填充异常栈，采样率不宜过高
+     */
+    public static void setCallSiteSampleOneIn(int sampleOneIn) {
+        callSiteSampleOneIn = sampleOneIn;
+    }
+
+    public static void addListener(Listener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    public static Map<String, ExecutorStats> snapshot() {
+        return Collections.unmodifiableMap(new HashMap<>(STATS));
+    }
+
+    public static ExecutorStats getStats(String name) {
+        return STATS.get(name);
+    }
+
+    /**
+     * 只清空计数，已创建的线程池仍可读取实时数据
+     */
+    public static void reset() {
+        for (Map.Entry<String, ExecutorStats> entry : STATS.entrySet()) {
+            ExecutorStats stats = new ExecutorStats(entry.getKey());
+            stats.executor = entry.getValue().executor;
+            STATS.put(entry.getKey(), stats);
+        }
+    }
+
+    /**
+     * 线程池创建时调用，不论是否开启都记录，用于读取实时数据
+     */
+    static void register(String name, ExecutorService executor) {
+        stats(name).executor = executor;
+    }
+
+    static void unregister(String name, ExecutorService executor) {
+        ExecutorStats stats = STATS.get(name);
+        if (stats != null && stats.executor == executor) {
+            stats.executor = null;
+        }
+    }
+
+    /**
+     * 统计拒绝次数，包括CALLER_RUNS和DISCARD这类不抛出异常的策略
+     */
+    static RejectedExecutionHandler countRejected(String name, RejectedExecutionHandler handler) {
+        return (r, executor) -> {
+            recordRejected(name);
+            handler.rejectedExecution(r, executor);
+        };
+    }
+
+    static void recordRejected(String name) {
+        if (!enabled) {
+            return;
+        }
+        stats(name).rejected.increment();
+        if (!LISTENERS.isEmpty()) {
+            for (Listener listener : LISTENERS) {
+                try {
+                    listener.onRejected(name);
+                } catch (Exception e) {
+                    LOGGER.error("executor metrics listener error", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭时原样返回
+     */
+    static Runnable wrap(String name, Runnable command) {
+        return enabled ? new MeteredTask<>(stats(name), command, null) : command;
+    }
+
+    static <T> Callable<T> wrap(String name, Callable<T> command) {
+        return enabled ? new MeteredTask<>(stats(name), null, command) : command;
+    }
+
+    private static ExecutorStats stats(String name) {
+        ExecutorStats stats = STATS.get(name);
+        if (stats == null) {
+            stats = STATS.computeIfAbsent(name, ExecutorStats::new);
+        }
+        return stats;
+    }
+
+    private static Throwable sampleCallSite() {
+        int sampleOneIn = callSiteSampleOneIn;
+        if (sampleOneIn <= 0 || (sampleOneIn > 1 && ThreadLocalRandom.current().nextInt(sampleOneIn) != 0)) {
+            return null;
+        }
+        return new Throwable();
+    }
+
+    /**
+     * 跳过本包线程池相关的栈帧，返回第一个调用方
+     */
+    private static String callSite(Throwable trace) {
+        if (trace == null) {
+            return null;
+        }
+        for (StackTraceElement element : trace.getStackTrace()) {
+            String className = element.getClassName();
+            if (!className.startsWith(ExecutorMetrics.class.getName()) && !className.startsWith(ThreadPoolUtil.class.getName())) {
+                return element.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 记录提交时间、开始和结束时间，一个任务只创建这一个对象
+     */
+    private static final class MeteredTask<T> implements Runnable, Callable<T> {
+        private final ExecutorStats stats;
+        private final Runnable runnable;
+        private final Callable<T> callable;
+        private final long submitNanos;
+        private final Throwable callSite;
+
+        private MeteredTask(ExecutorStats stats, Runnable runnable, Callable<T> callable) {
+            this.stats = stats;
+            this.runnable = runnable;
+            this.callable = callable;
+            this.callSite = sampleCallSite();
+            this.submitNanos = System.nanoTime();
+            stats.submitted.increment();
+        }
+
+        @Override
+        public void run() {
+            long begin = stats.start();
+            boolean failed = true;
+            try {
+                runnable.run();
+                failed = false;
+            } finally {
+                stats.finish(submitNanos, begin, failed, callSite);
+            }
+        }
+
+        @Override
+        public T call() throws Exception {
+            long begin = stats.start();
+            boolean failed = true;
+            try {
+                T result = callable.call();
+                failed = false;
+                return result;
+            } finally {
+                stats.finish(submitNanos, begin, failed, callSite);
+            }
+        }
+    }
+
+    public static class ExecutorStats {
+        private final String name;
+        private volatile ExecutorService executor;
+        private final LongAdder submitted = new LongAdder();
+        private final LongAdder started = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder slow = new LongAdder();
+        private final CacheMetrics.Histogram waitTime = new CacheMetrics.Histogram();
+        private final CacheMetrics.Histogram runTime = new CacheMetrics.Histogram();
+        private final AtomicReferenceArray<SlowTask> slowTasks = new AtomicReferenceArray<>(SLOW_TASK_SIZE);
+        private final AtomicLong slowIndex = new AtomicLong();
+
+        private ExecutorStats(String name) {
+            this.name = name;
+        }
+
+        private long start() {
+            started.increment();
+            return System.nanoTime();
+        }
+
+        private void finish(long submitNanos, long begin, boolean fail, Throwable trace) {
+            long waitNanos = begin - submitNanos;
+            long runNanos = System.nanoTime() - begin;
+            completed.increment();
+            if (fail) {
+                failed.increment();
+            }
+            waitTime.record(waitNanos);
+            runTime.record(runNanos);
+            long threshold = slowTaskNanos;
+            SlowTask slowTask = null;
+            if (threshold > 0 && runNanos >= threshold) {
+                slow.increment();
+                slowTask = new SlowTask(Thread.currentThread().getName(), callSite(trace), waitNanos, runNanos, fail);
+                slowTasks.set((int) (slowIndex.getAndIncrement() % SLOW_TASK_SIZE), slowTask);
+            }
+            if (!LISTENERS.isEmpty()) {
+                for (Listener listener : LISTENERS) {
+                    try {
+                        listener.onTask(name, waitNanos, runNanos, fail);
+                        if (slowTask != null) {
+                            listener.onSlowTask(name, slowTask);
+                        }
+                    } catch (Exception e) {
+                        LOGGER.error("executor metrics listener error", e);
+                    }
+                }
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSubmitted() {
+            return submitted.sum();
+        }
+
+        public long getCompleted() {
+            return completed.sum();
+        }
+
+        //执行时抛出异常的任务数，包括在completed中
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        public long getSlow() {
+            return slow.sum();
+        }
+
+        //提交到开始执行的耗时，单位纳秒
+        public CacheMetrics.Histogram getWaitTime() {
+            return waitTime;
+        }
+
+        //执行耗时，单位纳秒
+        public CacheMetrics.Histogram getRunTime() {
+            return runTime;
+        }
+
+        /**
+         * 最近的慢任务，按时间倒序
+         */
+        public List<SlowTask> getSlowTasks() {
+            List<SlowTask> result = new ArrayList<>(SLOW_TASK_SIZE);
+            long last = slowIndex.get();
+            for (long i = last - 1; i >= 0 && i >= last - SLOW_TASK_SIZE; i--) {
+                SlowTask slowTask = slowTasks.get((int) (i % SLOW_TASK_SIZE));
+                if (slowTask != null) {
+                    result.add(slowTask);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 正在执行任务的线程数，虚拟线程池按统计的开始和完成数计算
+         */
+        public int getActiveCount() {
+            ExecutorService current = executor;
+            if (current instanceof ThreadPoolExecutor) {
+                return ((ThreadPoolExecutor) current).getActiveCount();
+            }
+            if (current instanceof ForkJoinPool) {
+                return ((ForkJoinPool) current).getActiveThreadCount();
+            }
+            return (int) Math.max(started.sum() - completed.sum(), 0);
+        }
+
+        /**
+         * 等待执行的任务数，虚拟线程池按统计的提交和开始数计算
+         */
+        public long getQueueSize() {
+            ExecutorService current = executor;
+            if (current instanceof ThreadPoolExecutor) {
+                return ((ThreadPoolExecutor) current).getQueue().size();
+            }
+            if (current instanceof ForkJoinPool) {
+                ForkJoinPool pool = (ForkJoinPool) current;
+                return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+            }
+            return Math.max(submitted.sum() - rejected.sum() - started.sum(), 0);
+        }
+
+        public int getPoolSize() {
+            ExecutorService current = executor;
+            if (current instanceof ThreadPoolExecutor) {
+                return ((ThreadPoolExecutor) current).getPoolSize();
+            }
+            if (current instanceof ForkJoinPool) {
+                return ((ForkJoinPool) current).getPoolSize();
+            }
+            return getActiveCount();
+        }
+
+        //只有FORK_JOIN有窃取
+        public long getStealCount() {
+            ExecutorService current = executor;
+            return current instanceof ForkJoinPool ? ((ForkJoinPool) current).getStealCount() : 0;
+        }
+    }
+
+    public static class SlowTask {
+        private final long time = System.currentTimeMillis();
+        private final String threadName;
+        private final String callSite;
+        private final long waitNanos;
+        private final long runNanos;
+        private final boolean failed;
+
+        private SlowTask(String threadName, String callSite, long waitNanos, long runNanos, boolean failed) {
+            this.threadName = threadName;
+            this.callSite = callSite;
+            this.waitNanos = waitNanos;
+            this.runNanos = runNanos;
+            this.failed = failed;
+        }
+
+        //完成时间
+        public long getTime() {
+            return time;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        //提交任务的位置，未采样时为空
+        public String getCallSite() {
+            return callSite;
+        }
+
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+
+        public long getRunNanos() {
+            return runNanos;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return "thread:" + threadName + " callSite:" + callSite + " waitMs:" + TimeUnit.NANOSECONDS.toMillis(waitNanos)
+                    + " runMs:" + TimeUnit.NANOSECONDS.toMillis(runNanos) + " failed:" + failed;
+        }
+    }
+}
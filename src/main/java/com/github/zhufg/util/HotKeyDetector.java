@@ -0,0 +1,146 @@
+package com.github.zhufg.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 采样统计访问redis的key，按窗口估算qps，超过阈值的key判定为热点
+ * 挂在CacheConfig上时，只有热点key读取副本（需要同时设置hotKeyReplicas），见 RedisUtil.CacheConfig
+ * autoEnable为false时只统计和通知，不影响读取，可用于先观察再决定是否开启
+ *
+ * 判定为热点后qps低于阈值一半才取消，避免在阈值附近反复切换
+ */
+public class HotKeyDetector implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HotKeyDetector.class);
+    private static final ScheduledExecutorService ROTATOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-hot-key-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public interface Listener {
+        void onHot(String key, long qps);
+
+        void onCool(String key);
+    }
+
+    private final long qpsThreshold;
+    private final long windowMs;
+    private final int sampleOneIn;
+    private volatile ConcurrentMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private volatile Map<String, Long> hotKeys = Collections.emptyMap();
+    //每个窗口最多统计的key数量，超过后新key不再统计
+    private int maxTrackedKeys = 10000;
+    private volatile boolean autoEnable = true;
+    private volatile Listener listener;
+    private final ScheduledFuture<?> task;
+
+    /**
+     * @param qpsThreshold 单个key超过该qps判定为热点
+     * @param windowMs 统计窗口
+     * @param sampleOneIn 每sampleOneIn次访问采样一次，小于等于1时全部统计
+     */
+    public HotKeyDetector(long qpsThreshold, long windowMs, int sampleOneIn) {
+        this.qpsThreshold = qpsThreshold;
+        this.windowMs = windowMs;
+        this.sampleOneIn = Math.max(sampleOneIn, 1);
+        this.task = ROTATOR.scheduleAtFixedRate(this::rotateQuietly, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void record(String key) {
+        if (sampleOneIn > 1 && ThreadLocalRandom.current().nextInt(sampleOneIn) != 0) {
+            return;
+        }
+        ConcurrentMap<String, LongAdder> current = counts;
+        LongAdder adder = current.get(key);
+        if (adder == null) {
+            if (current.size() >= maxTrackedKeys) {
+                return;
+            }
+            adder = current.computeIfAbsent(key, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    /**
+     * 开启autoEnable且key为热点时返回true
+     */
+    public boolean isHot(String key) {
+        return autoEnable && hotKeys.containsKey(key);
+    }
+
+    /**
+     * 当前热点key及判定时的qps，不受autoEnable影响
+     */
+    public Map<String, Long> getHotKeys() {
+        return hotKeys;
+    }
+
+    @Override
+    public void close() {
+        task.cancel(false);
+    }
+
+    private void rotateQuietly() {
+        try {
+            rotate();
+        } catch (Exception e) {
+            LOGGER.error("hot key rotate error", e);
+        }
+    }
+
+    private void rotate() {
+        ConcurrentMap<String, LongAdder> window = counts;
+        counts = new ConcurrentHashMap<>();
+        Map<String, Long> previous = hotKeys;
+        Map<String, Long> hot = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : window.entrySet()) {
+            long qps = entry.getValue().sum() * sampleOneIn * 1000 / windowMs;
+            if (qps >= qpsThreshold || (previous.containsKey(entry.getKey()) && qps * 2 >= qpsThreshold)) {
+                hot.put(entry.getKey(), qps);
+            }
+        }
+        hotKeys = Collections.unmodifiableMap(hot);
+        Listener current = listener;
+        if (current == null) {
+            return;
+        }
+        for (Map.Entry<String, Long> entry : hot.entrySet()) {
+            if (!previous.containsKey(entry.getKey())) {
+                current.onHot(entry.getKey(), entry.getValue());
+            }
+        }
+        Set<String> cooled = new HashSet<>(previous.keySet());
+        cooled.removeAll(hot.keySet());
+        for (String key : cooled) {
+            current.onCool(key);
+        }
+    }
+
+    public void setAutoEnable(boolean autoEnable) {
+        this.autoEnable = autoEnable;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setMaxTrackedKeys(int maxTrackedKeys) {
+        this.maxTrackedKeys = maxTrackedKeys;
+    }
+}
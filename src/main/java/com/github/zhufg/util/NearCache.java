@@ -0,0 +1,284 @@
+package com.github.zhufg.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.io.Closeable;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内一级缓存，放在RedisUtil.getCache/getListCache之前
+ * 缓存的是反序列化之后的对象，命中时既不访问redis也不解析json
+ * 条数和内存（按json长度估算）双重限制，超过后按LRU淘汰
+ * 注意：命中返回的是同一个对象，调用方不要修改返回值
+ *
+ * 多节点之间通过redis pub/sub失效，RedisUtil.delete会发布被删除的key
+ * 需要接收失效通知的节点调用一次 NearCache.listen(redisTemplate)
+ *
+ * 读取redis之前先取generation，put时带上，期间key被失效过则不写入，避免读到的旧值在失效之后才放入
+ * 不再使用时调用close，未close的实例不再被引用后也会被回收
+ */
+public class NearCache implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NearCache.class);
+    public static final String INVALIDATE_CHANNEL = "@$%#nearCacheInvalidate##";
+    private static final byte[] INVALIDATE_CHANNEL_BYTES = INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+    //未命中标识，用于区分缓存的null值
+    public static final Object MISS = new Object();
+    private static final Object NULL_VALUE = new Object();
+    //单个条目的固定开销估算
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int SEGMENTS = 16;
+    //失效计数的分段数，不同key落在同一段时多跳过一次写入，不影响正确性
+    private static final int GENERATION_STRIPES = 1024;
+
+    //弱引用，只用于广播失效
+    private static final Set<NearCache> INSTANCES = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    //仅写redis不使用一级缓存的节点，需要手动开启发布
+    private static volatile boolean publish;
+
+    private final Segment[] segments;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    /**
+     * @param maxSize 最大条数
+     * @param maxWeightBytes 最大内存估算值（字节）
+     */
+    public NearCache(int maxSize, long maxWeightBytes) {
+        if (maxSize <= 0 || maxWeightBytes <= 0) {
+            throw new IllegalArgumentException("maxSize and maxWeightBytes must be positive");
+        }
+        int segmentSize = Math.max(1, maxSize / SEGMENTS);
+        long segmentWeight = Math.max(1, maxWeightBytes / SEGMENTS);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize, segmentWeight);
+        }
+        INSTANCES.add(this);
+        publish = true;
+    }
+
+    /**
+     * 未命中、类型不一致或已过期返回 MISS，缓存的空值返回 null
+     */
+    public Object get(String key, Type type, boolean list) {
+        Entry entry = segmentFor(key).get(key);
+        if (entry == null || entry.list != list || !Objects.equals(entry.type, type)) {
+            return MISS;
+        }
+        if (entry.expireAt < System.currentTimeMillis()) {
+            segmentFor(key).remove(key, entry);
+            return MISS;
+        }
+        return entry.value == NULL_VALUE ? null : entry.value;
+    }
+
+    /**
+     * @param weight 序列化后的长度，用于估算内存
+     */
+    public void put(String key, Type type, boolean list, Object value, int weight, long ttlMs) {
+        put(key, type, list, value, weight, ttlMs, -1);
+    }
+
+    /**
+     * key的失效计数，在读取redis之前获取，见 put
+     */
+    public long generation(String key) {
+        return generations.get(generationIndex(key));
+    }
+
+    /**
+     * @param generation 读取redis之前的generation(key)，之后key被失效过则不写入；小于0时不检查
+     */
+    public void put(String key, Type type, boolean list, Object value, int weight, long ttlMs, long generation) {
+        if (ttlMs <= 0) {
+            return;
+        }
+        Entry entry = new Entry(value == null ? NULL_VALUE : value, type, list,
+                System.currentTimeMillis() + ttlMs, ENTRY_OVERHEAD + key.length() * 2 + weight * 2L);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            //失效先增加计数再删除，检查和写入在同一把锁内，不会在删除之后写入旧值
+            if (generation >= 0 && generations.get(generationIndex(key)) != generation) {
+                return;
+            }
+            segment.put(key, entry);
+        }
+    }
+
+    public void invalidateLocal(String key) {
+        generations.incrementAndGet(generationIndex(key));
+        segmentFor(key).remove(key, null);
+    }
+
+    /**
+     * 清空并不再接收失效广播
+     */
+    @Override
+    public void close() {
+        INSTANCES.remove(this);
+        clear();
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String key) {
+        return segments[spread(key) & (SEGMENTS - 1)];
+    }
+
+    private static int generationIndex(String key) {
+        return spread(key) & (GENERATION_STRIPES - 1);
+    }
+
+    private static int spread(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 失效本节点所有一级缓存中的key，并通知其他节点
+     */
+    public static void invalidate(RedisTemplate redisTemplate, String key) {
+        invalidateAllLocal(key);
+        if (!publish) {
+            return;
+        }
+        try {
+            byte[] body = key.getBytes(StandardCharsets.UTF_8);
+            redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(INVALIDATE_CHANNEL_BYTES, body));
+        } catch (Exception e) {
+            //失效通知失败不影响删除，依赖一级缓存的ttl兜底
+            LOGGER.error("near cache invalidate publish error, key:" + key, e);
+        }
+    }
+
+    public static void invalidateAllLocal(String key) {
+        NearCache[] instances;
+        synchronized (INSTANCES) {
+            instances = INSTANCES.toArray(new NearCache[0]);
+        }
+        for (NearCache nearCache : instances) {
+            nearCache.invalidateLocal(key);
+        }
+    }
+
+    /**
+     * 只写不读的节点（不创建NearCache）需要开启，才能让其他节点收到失效通知
+     */
+    public static void enablePublish() {
+        publish = true;
+    }
+
+    /**
+     * 订阅失效通道，返回的container由调用方负责stop
+     */
+    public static RedisMessageListenerContainer listen(RedisTemplate redisTemplate) {
+        RedisConnectionFactory connectionFactory = redisTemplate.getConnectionFactory();
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener((message, pattern) ->
+                invalidateAllLocal(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(INVALIDATE_CHANNEL));
+        container.afterPropertiesSet();
+        container.start();
+        return container;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final Type type;
+        private final boolean list;
+        private final long expireAt;
+        private final long weight;
+
+        private Entry(Object value, Type type, boolean list, long expireAt, long weight) {
+            this.value = value;
+            this.type = type;
+            this.list = list;
+            this.expireAt = expireAt;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 分段LRU，每段单独加锁
+     */
+    private static class Segment {
+        private final int maxSize;
+        private final long maxWeight;
+        private long weight;
+        private final LinkedHashMap<String, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+
+        private Segment(int maxSize, long maxWeight) {
+            this.maxSize = maxSize;
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized Entry get(String key) {
+            return map.get(key);
+        }
+
+        synchronized void put(String key, Entry entry) {
+            if (entry.weight > maxWeight) {
+                remove(key, null);
+                return;
+            }
+            Entry old = map.put(key, entry);
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += entry.weight;
+            Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+            while ((map.size() > maxSize || weight > maxWeight) && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                weight -= eldest.weight;
+            }
+        }
+
+        /**
+         * expect 为空时无条件删除
+         */
+        synchronized void remove(String key, Entry expect) {
+            Entry current = map.get(key);
+            if (current == null || (expect != null && current != expect)) {
+                return;
+            }
+            map.remove(key);
+            weight -= current.weight;
+        }
+
+        synchronized void clear() {
+            map.clear();
+            weight = 0;
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.github.zhufg.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 基于redis bitmap的布隆过滤器，用于防止不存在的key穿透到数据库
+ * 通过CacheConfig挂在缓存上，lockCacheGet先判断，一定不存在的key直接返回null，不再缓存EMPTY_STRING
+ * 新增数据时需要调用add，否则新数据会被判断为不存在
+ *
+ * 本地保存一份bitmap副本，定时从redis刷新
+ * 本地判断不存在时默认再从redis确认一次，避免其他节点刚add的key在刷新前被拒绝
+ * 能接受刷新间隔内误判的场景可以设置trustLocal，完全不访问redis
+ */
+public class RedisBloomFilter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedisBloomFilter.class);
+    private static final String KEY_PREFIX = "@$%#bloomFilter##";
+    //redis setbit offset 上限
+    private static final long MAX_BITS = (1L << 32) - 1;
+    //集群模式下每条BITFIELD命令设置的位数
+    private static final int BITFIELD_CHUNK = 512;
+    private static final ScheduledExecutorService REFRESHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-bloom-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String redisKey;
+    private final byte[] rawKey;
+    private final long numBits;
+    private final int numHashes;
+    //缓存key转换为过滤器中的成员，默认使用key本身
+    private Function<String, String> keyToMember = Function.identity();
+    private boolean trustLocal;
+    private volatile byte[] local;
+
+    /**
+     * @param name 名称，不同名称对应不同的bitmap
+     * @param expectedInsertions 预计元素个数
+     * @param fpp 误判率
+     */
+    public RedisBloomFilter(String name, long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("expectedInsertions must be positive and fpp must in (0,1)");
+        }
+        this.redisKey = KEY_PREFIX + name;
+        this.rawKey = redisKey.getBytes(StandardCharsets.UTF_8);
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.min(Math.max(bits, 64), MAX_BITS);
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     * 按缓存key判断，false表示一定不存在
+     */
+    public boolean mightContainKey(RedisTemplate redisTemplate, String key) {
+        return mightContain(redisTemplate, keyToMember.apply(key));
+    }
+
+    /**
+     * false表示一定不存在
+     */
+    public boolean mightContain(RedisTemplate redisTemplate, String member) {
+        long[] offsets = offsets(member);
+        byte[] snapshot = local;
+        if (snapshot != null) {
+            if (containsAll(snapshot, offsets)) {
+                return true;
+            }
+            if (trustLocal) {
+                return false;
+            }
+        }
+        return containsInRedis(redisTemplate, offsets);
+    }
+
+    public void add(RedisTemplate redisTemplate, String member) {
+        long[] offsets = offsets(member);
+        setBits(redisTemplate, offsets);
+        setLocal(offsets);
+    }
+
+    /**
+     * 先计算全部offset，一次写入redis，适用于批量回填
+     */
+    public void addAll(RedisTemplate redisTemplate, Collection<String> members) {
+        if (members.isEmpty()) {
+            return;
+        }
+        long[] offsets = new long[members.size() * numHashes];
+        int n = 0;
+        for (String member : members) {
+            for (long offset : offsets(member)) {
+                offsets[n++] = offset;
+            }
+        }
+        setBits(redisTemplate, offsets);
+        setLocal(offsets);
+    }
+
+    /**
+     * 单机一个pipeline写入全部SETBIT
+     * 集群不支持pipeline，bitmap只有一个key，每BITFIELD_CHUNK位合并为一条BITFIELD命令
+     */
+    private void setBits(RedisTemplate redisTemplate, long[] offsets) {
+        try {
+            if (RedisUtil.isCluster(redisTemplate)) {
+                for (int from = 0; from < offsets.length; from += BITFIELD_CHUNK) {
+                    BitFieldSubCommands commands = bitFieldSet(offsets, from, Math.min(from + BITFIELD_CHUNK, offsets.length));
+                    redisTemplate.execute((RedisCallback<List<Long>>) connection -> connection.bitField(rawKey, commands));
+                }
+                return;
+            }
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (long offset : offsets) {
+                    connection.setBit(rawKey, offset, true);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            throw new RedisUtil.RedisInvalidException("redis setbit 异常", e);
+        }
+    }
+
+    private static BitFieldSubCommands bitFieldSet(long[] offsets, int from, int to) {
+        BitFieldSubCommands commands = BitFieldSubCommands.create();
+        for (int i = from; i < to; i++) {
+            commands = commands.set(BitFieldSubCommands.BitFieldType.unsigned(1))
+                    .valueAt(BitFieldSubCommands.Offset.offset(offsets[i])).to(1);
+        }
+        return commands;
+    }
+
+    private static BitFieldSubCommands bitFieldGet(long[] offsets) {
+        BitFieldSubCommands commands = BitFieldSubCommands.create();
+        for (long offset : offsets) {
+            commands = commands.get(BitFieldSubCommands.BitFieldType.unsigned(1))
+                    .valueAt(BitFieldSubCommands.Offset.offset(offset));
+        }
+        return commands;
+    }
+
+    /**
+     * 从redis拉取完整bitmap到本地
+     */
+    public void refresh(RedisTemplate redisTemplate) {
+        try {
+            byte[] bitmap = (byte[]) redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+            local = bitmap == null ? new byte[0] : bitmap;
+        } catch (Exception e) {
+            throw new RedisUtil.RedisInvalidException("redis get 异常", e);
+        }
+    }
+
+    /**
+     * 立即刷新一次并定时刷新，返回值可用于取消
+     */
+    public ScheduledFuture<?> startAutoRefresh(RedisTemplate redisTemplate, long periodMs) {
+        refresh(redisTemplate);
+        return REFRESHER.scheduleWithFixedDelay(() -> {
+            try {
+                refresh(redisTemplate);
+            } catch (Exception e) {
+                LOGGER.error("bloom filter refresh error:" + redisKey, e);
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 与读写一致使用rawKey，不经过redisTemplate的key序列化
+     */
+    public void delete(RedisTemplate redisTemplate) {
+        try {
+            redisTemplate.execute((RedisCallback<Long>) connection -> connection.del(rawKey));
+        } catch (Exception e) {
+            throw new RedisUtil.RedisInvalidException("redis del 异常", e);
+        }
+        local = null;
+    }
+
+    private boolean containsInRedis(RedisTemplate redisTemplate, long[] offsets) {
+        try {
+            if (RedisUtil.isCluster(redisTemplate)) {
+                //一条BITFIELD读取全部位
+                BitFieldSubCommands commands = bitFieldGet(offsets);
+                List<Long> bits = (List<Long>) redisTemplate.execute((RedisCallback<List<Long>>) connection -> connection.bitField(rawKey, commands));
+                if (bits == null || bits.size() != offsets.length) {
+                    return false;
+                }
+                for (Long bit : bits) {
+                    if (bit == null || bit != 1) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            List<Object> bits = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (long offset : offsets) {
+                    connection.getBit(rawKey, offset);
+                }
+                return null;
+            });
+            for (Object bit : bits) {
+                if (!Boolean.TRUE.equals(bit)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            throw new RedisUtil.RedisInvalidException("redis getbit 异常", e);
+        }
+    }
+
+    /**
+     * 本地副本在读取时不加锁，修改时复制后整体替换，读取方不会看到修改到一半的数组
+     */
+    private synchronized void setLocal(long[] offsets) {
+        byte[] snapshot = local;
+        if (snapshot == null) {
+            return;
+        }
+        long maxOffset = 0;
+        for (long offset : offsets) {
+            maxOffset = Math.max(maxOffset, offset);
+        }
+        int needed = (int) (maxOffset >>> 3) + 1;
+        byte[] updated = Arrays.copyOf(snapshot, Math.max(snapshot.length, needed));
+        for (long offset : offsets) {
+            updated[(int) (offset >>> 3)] |= (byte) (0x80 >>> (offset & 7));
+        }
+        local = updated;
+    }
+
+    /**
+     * redis bitmap中offset 0 为第一个字节的最高位
+     */
+    private static boolean containsAll(byte[] bitmap, long[] offsets) {
+        for (long offset : offsets) {
+            int index = (int) (offset >>> 3);
+            if (index >= bitmap.length || (bitmap[index] & (0x80 >>> (offset & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 双重哈希 g(i) = h1 + i * h2
+     */
+    private long[] offsets(String member) {
+        byte[] bytes = member.getBytes(StandardCharsets.UTF_8);
+        long h1 = fmix64(fnv(bytes, 0xcbf29ce484222325L));
+        long h2 = fmix64(fnv(bytes, 0x84222325cbf29ce4L)) | 1;
+        long[] offsets = new long[numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            offsets[i] = Long.remainderUnsigned(h1 + i * h2, numBits);
+        }
+        return offsets;
+    }
+
+    private static long fnv(byte[] bytes, long seed) {
+        long h = seed;
+        for (byte b : bytes) {
+            h ^= (b & 0xFF);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    public void setKeyToMember(Function<String, String> keyToMember) {
+        this.keyToMember = keyToMember;
+    }
+
+    public void setTrustLocal(boolean trustLocal) {
+        this.trustLocal = trustLocal;
+    }
+
+    public long getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+}
@@ -0,0 +1,303 @@
+package com.github.zhufg.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地聚合的redis计数器，用于代替高频调用的 RedisUtil.increBy
+ * 计数先累加在本地LongAdder中，按flushIntervalMs定时或待刷新key数达到maxPendingKeys时批量写入redis
+ * 写入使用pipeline执行INCRBY，key没有失效时间时设置失效时间，与increBy的固定窗口语义一致
+ *
+ * 适用于可以接受几百毫秒延迟的计数，不适合需要立即拿到准确结果的限流
+ * 进程异常退出时未刷新的计数会丢失，正常退出时通过shutdown hook刷新
+ */
+public class RedisBufferedCounter implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedisBufferedCounter.class);
+    private static final RedisScript<Long> LUA_INCRBY = new DefaultRedisScript<>(
+            "local v = redis.call('INCRBY', KEYS[1], ARGV[1])"
+                    + " if tonumber(ARGV[2]) > 0 and redis.call('TTL', KEYS[1]) == -1 then redis.call('EXPIRE', KEYS[1], ARGV[2]) end"
+                    + " return v", Long.class);
+    private static final long UNKNOWN = Long.MIN_VALUE;
+    private static final Object DROPPED = new Object();
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-counter-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RedisTemplate redisTemplate;
+    private final byte[] expireSec;
+    private final int maxPendingKeys;
+    private final ConcurrentMap<String, Cell> cells = new ConcurrentHashMap<>();
+    //上次刷新时没有新增计数而移出的key，再刷新一次后丢弃
+    private List<Cell> draining = new ArrayList<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledFuture<?> task;
+    private final Thread shutdownHook;
+    private volatile boolean closed;
+    //只在flush中访问
+    private boolean scriptLoaded;
+
+    /**
+     * @param expireTime key的失效时间，只在key没有失效时间时设置，小于等于0不设置
+     * @param flushIntervalMs 刷新间隔
+     * @param maxPendingKeys 待刷新的key超过该数量时立即刷新
+     */
+    public RedisBufferedCounter(RedisTemplate redisTemplate, long expireTime, TimeUnit timeUnit, long flushIntervalMs, int maxPendingKeys) {
+        this.redisTemplate = redisTemplate;
+        this.expireSec = String.valueOf(timeUnit.toSeconds(expireTime)).getBytes(StandardCharsets.UTF_8);
+        this.maxPendingKeys = maxPendingKeys;
+        this.task = FLUSHER.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        this.shutdownHook = new Thread(this::close, "redis-counter-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    public void increment(String key) {
+        add(key, 1);
+    }
+
+    public void add(String key, long delta) {
+        if (closed) {
+            throw new IllegalStateException("counter closed");
+        }
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = cells.computeIfAbsent(key, Cell::new);
+            if (maxPendingKeys > 0 && cells.size() >= maxPendingKeys && flushRequested.compareAndSet(false, true)) {
+                FLUSHER.execute(this::flushQuietly);
+            }
+        }
+        cell.adder.add(delta);
+        if (closed) {
+            //与close并发时，close的最后一次刷新可能没有包含本次计数，再刷新一次
+            flushQuietly();
+        }
+    }
+
+    /**
+     * 近似的全局计数：本节点最近一次刷新得到的redis值加上本地未刷新的部分
+     * 本节点还没有刷新过该key时读取一次redis
+     * 其他节点未刷新的计数不包含在内
+     */
+    public long getApproximate(String key) {
+        Cell cell = cells.get(key);
+        long pending = cell == null ? 0 : cell.adder.sum() - cell.flushed;
+        long global = cell == null ? UNKNOWN : cell.global;
+        if (global == UNKNOWN) {
+            global = getFromRedis(key);
+        }
+        return global + pending;
+    }
+
+    /**
+     * INCRBY写入的是数字字符串，直接读取字节，不经过redisTemplate的value序列化
+     */
+    private long getFromRedis(String key) {
+        byte[] raw;
+        try {
+            byte[] rawKey = redisTemplate.getKeySerializer().serialize(key);
+            raw = (byte[]) redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+        } catch (Exception e) {
+            throw new RedisUtil.RedisInvalidException("redis get 异常", e);
+        }
+        return raw == null ? 0 : Long.parseLong(new String(raw, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 将本地计数写入redis，确定未执行的部分保留到下次刷新，无法确定是否执行的部分丢弃
+     */
+    public synchronized void flush() {
+        flushRequested.set(false);
+        List<Cell> batch = new ArrayList<>();
+        List<Cell> retired = new ArrayList<>();
+        for (Cell cell : draining) {
+            if (cell.adder.sum() != cell.flushed) {
+                batch.add(cell);
+            }
+        }
+        for (Cell cell : cells.values()) {
+            if (cell.adder.sum() != cell.flushed) {
+                batch.add(cell);
+            } else if (cells.remove(cell.key, cell)) {
+                //移出后仍可能有线程持有该cell并累加，下次刷新时再检查一次
+                retired.add(cell);
+            }
+        }
+        Set<Cell> failed = write(batch);
+        for (Cell cell : draining) {
+            if (failed.contains(cell)) {
+                retired.add(cell);
+            }
+        }
+        draining = retired;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        task.cancel(false);
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            //已经在shutdown中
+        }
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            LOGGER.error("counter flush error", e);
+        }
+    }
+
+    /**
+     * @return 写入失败的cell
+     */
+    private Set<Cell> write(List<Cell> batch) {
+        if (batch.isEmpty()) {
+            return Collections.emptySet();
+        }
+        int size = batch.size();
+        byte[][] rawKeys = new byte[size][];
+        long[] deltas = new long[size];
+        for (int i = 0; i < size; i++) {
+            Cell cell = batch.get(i);
+            rawKeys[i] = redisTemplate.getKeySerializer().serialize(cell.key);
+            deltas[i] = cell.adder.sum() - cell.flushed;
+        }
+        List<Object> results;
+        if (RedisUtil.isCluster(redisTemplate)) {
+            results = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                results.add(incrBy(rawKeys[i], deltas[i]));
+            }
+        } else {
+            results = pipelineIncrBy(rawKeys, deltas, true);
+            if (results == null) {
+                return new HashSet<>(batch);
+            }
+        }
+        Set<Cell> failed = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            Cell cell = batch.get(i);
+            Object result = i < results.size() ? results.get(i) : null;
+            if (result instanceof Long) {
+                cell.flushed += deltas[i];
+                cell.global = (Long) result;
+            } else if (result == DROPPED) {
+                cell.flushed += deltas[i];
+            } else {
+                failed.add(cell);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * @return 各key的结果，为空表示命令一定未执行，保留到下次刷新
+     */
+    private List<Object> pipelineIncrBy(byte[][] rawKeys, long[] deltas, boolean retryNoScript) {
+        if (!scriptLoaded) {
+            try {
+                //jedis不支持在pipeline中加载脚本，单独加载
+                redisTemplate.execute((RedisCallback<String>) connection ->
+                        connection.scriptLoad(LUA_INCRBY.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+                scriptLoaded = true;
+            } catch (Exception e) {
+                LOGGER.error("counter script load error", e);
+                return null;
+            }
+        }
+        try {
+            return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < rawKeys.length; i++) {
+                    connection.evalSha(LUA_INCRBY.getSha1(), ReturnType.INTEGER, 1, rawKeys[i], toBytes(deltas[i]), expireSec);
+                }
+                return null;
+            });
+        } catch (RedisPipelineException e) {
+            if (retryNoScript && RedisUtil.isNoScript(e)) {
+                //redis重启后脚本缓存丢失，同一个脚本的命令都未执行，重新加载后重试
+                scriptLoaded = false;
+                return pipelineIncrBy(rawKeys, deltas, false);
+            }
+            List<Object> results = e.getPipelineResult();
+            if (results.size() == rawKeys.length) {
+                LOGGER.error("counter pipeline error", e);
+                return results;
+            }
+            //无法确定哪些命令已执行（如lettuce遇到错误时不返回各命令结果），不再重试，避免重复计数
+            LOGGER.error("counter pipeline error, " + rawKeys.length + " keys dropped", e);
+            return Collections.nCopies(rawKeys.length, DROPPED);
+        } catch (RedisConnectionFailureException e) {
+            //未能获取连接，命令未发出
+            LOGGER.error("counter pipeline connection error", e);
+            return null;
+        } catch (Exception e) {
+            //如超时，命令可能已执行，不再重试，避免重复计数
+            LOGGER.error("counter pipeline error, " + rawKeys.length + " keys dropped", e);
+            return Collections.nCopies(rawKeys.length, DROPPED);
+        }
+    }
+
+    /**
+     * 与pipelineIncrBy一致，只有未能获取连接时保留到下次刷新，其余异常丢弃
+     */
+    private Object incrBy(byte[] rawKey, long delta) {
+        try {
+            return redisTemplate.execute((RedisCallback<Long>) connection ->
+                    RedisUtil.evalScript(connection, LUA_INCRBY, ReturnType.INTEGER, 1, rawKey, toBytes(delta), expireSec));
+        } catch (RedisConnectionFailureException e) {
+            LOGGER.error("counter incrBy connection error", e);
+            return e;
+        } catch (Exception e) {
+            LOGGER.error("counter incrBy error, delta dropped:" + delta, e);
+            return DROPPED;
+        }
+    }
+
+    private static byte[] toBytes(long value) {
+        return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Cell {
+        private final String key;
+        private final LongAdder adder = new LongAdder();
+        //已写入redis的部分，只在flush中修改
+        private volatile long flushed;
+        //最近一次写入后redis中的值
+        private volatile long global = UNKNOWN;
+
+        private Cell(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.github.zhufg.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 缓存预热，发布或redis切换后缓存为空时批量加载，避免第一波请求全部走lockCacheGet的加锁加载
+ * key按batchSize分批，每批调用一次批量加载（与getCacheBatch的missLoader相同），在ThreadPoolUtil线程池中并行执行
+ * 写入格式与getCache一致（包括staleTimeMs和热点副本），失效时间增加随机值，避免预热的key同时失效
+ *
+ * 同时执行的批次不超过maxConcurrentBatches，并可限制每秒加载的key数量，避免压垮数据库
+ * run阻塞到预热完成或超过maxTimeMs，可在服务标记为就绪前调用；runAsync在后台执行
+ */
+public class RedisCacheWarmer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedisCacheWarmer.class);
+
+    private final RedisTemplate redisTemplate;
+    private final RedisUtil.CacheConfig cacheConfig;
+    //每批key数量 默认100
+    private int batchSize = 100;
+    //同时执行的批次数 默认为cpu数
+    private int maxConcurrentBatches = ThreadPoolUtil.getReasonableProcess();
+    //每秒最多加载的key数量，小于等于0不限制
+    private int maxKeysPerSecond;
+    //失效时间随机增加0~ttlJitterMs
+    private long ttlJitterMs;
+    //已存在的key不再加载 默认开启
+    private boolean skipExisting = true;
+    //最长执行时间，超过后不再提交新的批次，小于等于0不限制
+    private long maxTimeMs;
+    //加载使用的线程池名称，见ThreadPoolUtil
+    private String executorName = "REDIS_CACHE_WARMUP";
+    //每批完成后回调
+    private Consumer<Progress> progressListener;
+
+    public RedisCacheWarmer(RedisTemplate redisTemplate, RedisUtil.CacheConfig cacheConfig) {
+        this.redisTemplate = redisTemplate;
+        this.cacheConfig = cacheConfig;
+    }
+
+    /**
+     * 加载失败的批次记录日志并计入failed，不中断预热
+     * @param keys 待预热的key，在调用线程中逐个读取
+     * @param loader 入参为一批key，返回key对应的值，没有返回的key按空值缓存
+     */
+    public <V> Progress run(Iterator<String> keys, Function<Set<String>, Map<String, V>> loader) {
+        Progress progress = new Progress();
+        long deadline = maxTimeMs > 0 ? progress.beginTime + maxTimeMs : Long.MAX_VALUE;
+        Semaphore permits = new Semaphore(Math.max(maxConcurrentBatches, 1));
+        try {
+            while (keys.hasNext()) {
+                Set<String> batch = new LinkedHashSet<>();
+                while (batch.size() < batchSize && keys.hasNext()) {
+                    batch.add(keys.next());
+                }
+                progress.scanned.addAndGet(batch.size());
+                pace(progress);
+                if (!acquire(permits, deadline)) {
+                    progress.timeout = true;
+                    LOGGER.warn("cache warm up timeout, " + progress);
+                    break;
+                }
+                try {
+                    ThreadPoolUtil.execute(executorName, () -> {
+                        try {
+                            warmBatch(batch, loader, progress);
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    permits.release();
+                    progress.failed.addAndGet(batch.size());
+                    LOGGER.error("cache warm up submit error", e);
+                }
+            }
+            //等待已提交的批次完成
+            if (!acquire(permits, Math.max(maxConcurrentBatches, 1), deadline)) {
+                progress.timeout = true;
+                LOGGER.warn("cache warm up timeout, " + progress);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("cache warm up interrupted, " + progress);
+        }
+        progress.endTime = System.currentTimeMillis();
+        LOGGER.info("cache warm up finished, " + progress);
+        return progress;
+    }
+
+    /**
+     * 在executorName线程池外的单独线程中执行run，不占用加载线程
+     */
+    public <V> CompletableFuture<Progress> runAsync(Iterator<String> keys, Function<Set<String>, Map<String, V>> loader) {
+        CompletableFuture<Progress> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                result.complete(run(keys, loader));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }, "redis-cache-warmup");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    private <V> void warmBatch(Set<String> batch, Function<Set<String>, Map<String, V>> loader, Progress progress) {
+        try {
+            Set<String> missing = skipExisting ? missing(batch) : batch;
+            progress.skipped.addAndGet(batch.size() - missing.size());
+            if (!missing.isEmpty()) {
+                Map<String, V> loaded = loader.apply(missing);
+                RedisUtil.setLoaded(missing, loaded, ttlJitterMs, redisTemplate, cacheConfig);
+                progress.loaded.addAndGet(missing.size());
+            }
+        } catch (Exception e) {
+            progress.failed.addAndGet(batch.size());
+            LOGGER.error("cache warm up batch error", e);
+        }
+        Consumer<Progress> listener = progressListener;
+        if (listener != null) {
+            try {
+                listener.accept(progress);
+            } catch (Exception e) {
+                LOGGER.error("cache warm up progress listener error", e);
+            }
+        }
+    }
+
+    /**
+     * 只检查第0个副本，即key本身（配置了命名空间时为当前版本的key）
+     */
+    private Set<String> missing(Set<String> batch) {
+        List<String> keys = new ArrayList<>(batch);
+        RedisSerializer keySerializer = redisTemplate.getKeySerializer();
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = keySerializer.serialize(RedisUtil.namespacedKey(keys.get(i), redisTemplate, cacheConfig));
+        }
+        //pipeline中返回值为空，结果由executePipelined返回
+        List<Object> results = new ArrayList<>(keys.size());
+        RedisCallback<Object> callback = connection -> {
+            for (byte[] rawKey : rawKeys) {
+                results.add(connection.exists(rawKey));
+            }
+            return null;
+        };
+        List<Object> exists;
+        try {
+            if (RedisUtil.isCluster(redisTemplate)) {
+                redisTemplate.execute(callback);
+                exists = results;
+            } else {
+                exists = redisTemplate.executePipelined(callback);
+            }
+        } catch (Exception e) {
+            throw new RedisUtil.RedisInvalidException("redis exists 异常", e);
+        }
+        Set<String> missing = new LinkedHashSet<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (!Boolean.TRUE.equals(exists.get(i))) {
+                missing.add(keys.get(i));
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 按maxKeysPerSecond控制提交速度，以开始时间为基准，不累积误差
+     */
+    private void pace(Progress progress) throws InterruptedException {
+        if (maxKeysPerSecond <= 0) {
+            return;
+        }
+        long expectAt = progress.beginTime + progress.scanned.get() * 1000 / maxKeysPerSecond;
+        long sleep = expectAt - System.currentTimeMillis();
+        if (sleep > 0) {
+            Thread.sleep(sleep);
+        }
+    }
+
+    private static boolean acquire(Semaphore permits, long deadline) throws InterruptedException {
+        return acquire(permits, 1, deadline);
+    }
+
+    private static boolean acquire(Semaphore permits, int n, long deadline) throws InterruptedException {
+        if (deadline == Long.MAX_VALUE) {
+            permits.acquire(n);
+            return true;
+        }
+        return permits.tryAcquire(n, Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setMaxConcurrentBatches(int maxConcurrentBatches) {
+        this.maxConcurrentBatches = maxConcurrentBatches;
+    }
+
+    public void setMaxKeysPerSecond(int maxKeysPerSecond) {
+        this.maxKeysPerSecond = maxKeysPerSecond;
+    }
+
+    public void setTtlJitterMs(long ttlJitterMs) {
+        this.ttlJitterMs = ttlJitterMs;
+    }
+
+    public void setSkipExisting(boolean skipExisting) {
+        this.skipExisting = skipExisting;
+    }
+
+    public void setMaxTimeMs(long maxTimeMs) {
+        this.maxTimeMs = maxTimeMs;
+    }
+
+    public void setExecutorName(String executorName) {
+        this.executorName = executorName;
+    }
+
+    public void setProgressListener(Consumer<Progress> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * 预热进度，执行中可随时读取
+     */
+    public static class Progress {
+        private final long beginTime = System.currentTimeMillis();
+        private volatile long endTime;
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong loaded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile boolean timeout;
+
+        //已读取的key数量
+        public long getScanned() {
+            return scanned.get();
+        }
+
+        //已存在而跳过的key数量
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        //加载并写入的key数量，包括空值
+        public long getLoaded() {
+            return loaded.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        //超过maxTimeMs，部分key未预热
+        public boolean isTimeout() {
+            return timeout;
+        }
+
+        public boolean isDone() {
+            return endTime > 0;
+        }
+
+        public long getElapsedMs() {
+            return (endTime > 0 ? endTime : System.currentTimeMillis()) - beginTime;
+        }
+
+        @Override
+        public String toString() {
+            return "scanned:" + scanned + " skipped:" + skipped + " loaded:" + loaded + " failed:" + failed
+                    + " elapsedMs:" + getElapsedMs();
+        }
+    }
+}
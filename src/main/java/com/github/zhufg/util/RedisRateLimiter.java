@@ -0,0 +1,178 @@
+package com.github.zhufg.util;
+
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于redis的限流，代替 RedisUtil.increBy 实现的固定窗口限流（窗口交界处最多放行两倍的请求）
+ * 滑动窗口：按当前窗口和上一个窗口的计数加权估算最近一个窗口内的请求数，每个key只占两个计数
+ * 令牌桶：按固定速率补充令牌，允许不超过容量的突发
+ *
+ * 每种算法为一个lua脚本，通过EVALSHA执行，使用redis的时间，不受各节点时钟影响
+ * 被拒绝时脚本返回需要等待的时间，等待期间同一个key相同或更多的请求在本地直接拒绝，不访问redis
+ */
+public class RedisRateLimiter {
+    private static final String KEY_PREFIX = "@$%#rateLimiter##";
+    //本地拒绝记录超过该数量时清理已过期的记录
+    private static final int MAX_LOCAL_REJECTS = 10000;
+    //返回值：大于等于0为放行后剩余的数量，小于0为被拒绝，绝对值为建议等待的毫秒数
+    private static final RedisScript<Long> LUA_SLIDING_WINDOW = new DefaultRedisScript<>(
+            "redis.replicate_commands()"
+                    + " local t = redis.call('TIME')"
+                    + " local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)"
+                    + " local window = tonumber(ARGV[1])"
+                    + " local limit = tonumber(ARGV[2])"
+                    + " local permits = tonumber(ARGV[3])"
+                    + " local index = math.floor(now / window)"
+                    + " local elapsed = now - index * window"
+                    + " local current = tonumber(redis.call('HGET', KEYS[1], tostring(index)) or '0')"
+                    + " local previous = tonumber(redis.call('HGET', KEYS[1], tostring(index - 1)) or '0')"
+                    + " local used = previous * (window - elapsed) / window + current"
+                    + " if used + permits > limit then"
+                    + "   local rest = limit - current - permits"
+                    + "   if rest < 0 or previous == 0 then return -math.max(window - elapsed, 1) end"
+                    + "   return -math.max(math.ceil(window * (1 - rest / previous)) - elapsed, 1)"
+                    + " end"
+                    + " redis.call('HINCRBY', KEYS[1], tostring(index), permits)"
+                    + " redis.call('HDEL', KEYS[1], tostring(index - 2))"
+                    + " redis.call('PEXPIRE', KEYS[1], window * 2)"
+                    + " return math.floor(limit - used - permits)", Long.class);
+    private static final RedisScript<Long> LUA_TOKEN_BUCKET = new DefaultRedisScript<>(
+            "redis.replicate_commands()"
+                    + " local t = redis.call('TIME')"
+                    + " local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)"
+                    + " local capacity = tonumber(ARGV[1])"
+                    + " local rate = tonumber(ARGV[2])"
+                    + " local permits = tonumber(ARGV[3])"
+                    + " local bucket = redis.call('HMGET', KEYS[1], 'tokens', 'ts')"
+                    + " local tokens = tonumber(bucket[1])"
+                    + " local ts = tonumber(bucket[2])"
+                    + " if tokens == nil then tokens = capacity ts = now end"
+                    + " tokens = math.min(capacity, tokens + math.max(now - ts, 0) * rate)"
+                    + " if tokens < permits then return -math.max(math.ceil((permits - tokens) / rate), 1) end"
+                    + " tokens = tokens - permits"
+                    + " redis.call('HMSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(now))"
+                    + " redis.call('PEXPIRE', KEYS[1], math.ceil(capacity / rate) + 1000)"
+                    + " return math.floor(tokens)", Long.class);
+
+    private final String keyPrefix;
+    private final RedisScript<Long> script;
+    private final long limit;
+    private final byte[][] args;
+    private boolean localPreCheck = true;
+    private final ConcurrentMap<String, Reject> rejects = new ConcurrentHashMap<>();
+
+    private RedisRateLimiter(String name, RedisScript<Long> script, long limit, String arg0, String arg1) {
+        this.keyPrefix = KEY_PREFIX + name + ":";
+        this.script = script;
+        this.limit = limit;
+        this.args = new byte[][]{arg0.getBytes(StandardCharsets.UTF_8), arg1.getBytes(StandardCharsets.UTF_8)};
+    }
+
+    /**
+     * 滑动窗口
+     * @param name 名称，不同名称的计数互相独立
+     * @param limit 一个窗口内允许的数量
+     * @param window 窗口长度，最小1毫秒
+     */
+    public static RedisRateLimiter slidingWindow(String name, long limit, long window, TimeUnit timeUnit) {
+        long windowMs = timeUnit.toMillis(window);
+        if (limit <= 0 || windowMs <= 0) {
+            throw new IllegalArgumentException("limit and window must be positive");
+        }
+        return new RedisRateLimiter(name, LUA_SLIDING_WINDOW, limit, String.valueOf(windowMs), String.valueOf(limit));
+    }
+
+    /**
+     * 令牌桶
+     * @param name 名称，不同名称的计数互相独立
+     * @param capacity 桶容量，即允许的最大突发
+     * @param permitsPerSecond 每秒补充的令牌数
+     */
+    public static RedisRateLimiter tokenBucket(String name, long capacity, double permitsPerSecond) {
+        if (capacity <= 0 || permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("capacity and permitsPerSecond must be positive");
+        }
+        return new RedisRateLimiter(name, LUA_TOKEN_BUCKET, capacity, String.valueOf(capacity), String.valueOf(permitsPerSecond / 1000));
+    }
+
+    public boolean tryAcquire(RedisTemplate redisTemplate, String key) {
+        return tryAcquire(redisTemplate, key, 1);
+    }
+
+    /**
+     * 一次获取多个许可，全部获取成功返回true，否则不占用任何许可
+     */
+    public boolean tryAcquire(RedisTemplate redisTemplate, String key, int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+        if (permits > limit) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (localPreCheck && rejectedLocally(key, permits, now)) {
+            return false;
+        }
+        Long result;
+        try {
+            byte[] rawKey = redisTemplate.getKeySerializer().serialize(keyPrefix + key);
+            byte[] rawPermits = String.valueOf(permits).getBytes(StandardCharsets.UTF_8);
+            result = (Long) redisTemplate.execute((RedisCallback<Long>) connection ->
+                    RedisUtil.evalScript(connection, script, ReturnType.INTEGER, 1, rawKey, args[0], args[1], rawPermits));
+        } catch (Exception e) {
+            throw new RedisUtil.RedisInvalidException("redis rate limit 异常", e);
+        }
+        if (result != null && result >= 0) {
+            return true;
+        }
+        if (localPreCheck && result != null) {
+            if (rejects.size() >= MAX_LOCAL_REJECTS) {
+                rejects.values().removeIf(reject -> reject.until <= now);
+            }
+            rejects.put(key, new Reject(now - result, permits));
+        }
+        return false;
+    }
+
+    /**
+     * 上次被拒绝后等待时间未到，且本次数量不少于上次，结果一定还是拒绝
+     */
+    private boolean rejectedLocally(String key, int permits, long now) {
+        Reject reject = rejects.get(key);
+        if (reject == null) {
+            return false;
+        }
+        if (reject.until <= now) {
+            rejects.remove(key, reject);
+            return false;
+        }
+        return permits >= reject.permits;
+    }
+
+    /**
+     * 是否在本地记录被拒绝的key，默认开启
+     * 关闭后每次请求都访问redis，用于需要立即感知其他节点释放或重置的场景
+     */
+    public void setLocalPreCheck(boolean localPreCheck) {
+        this.localPreCheck = localPreCheck;
+    }
+
+    private static class Reject {
+        private final long until;
+        private final int permits;
+
+        private Reject(long until, int permits) {
+            this.until = until;
+            this.permits = permits;
+        }
+    }
+}
@@ -5,23 +5,53 @@ import com.alibaba.fastjson.TypeReference;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisCluster;
-import redis.clients.jedis.JedisCommands;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
 
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
- * increBy依赖jedis
+ * 只依赖RedisConnection的接口，jedis和lettuce均可使用
  * 此工具产生的主要目的是解决缓存击穿和缓存穿透
  * 后期增加了部分内容
  *
@@ -30,16 +60,60 @@ public class RedisUtil {
     public static final String EMPTY_STRING="!&*!{}";
     private static final Logger LOGGER = LoggerFactory.getLogger(RedisUtil.class);
     private static final int WAIT_TIME_OUT_SEC=5;
+    private static final String NOT_NULL_FLIGHT_SUFFIX="@$%#notNull##";
+    //逻辑失效时间前缀 格式为 前缀+逻辑失效时间:加载耗时|value
+    private static final String STALE_PREFIX="!&*!swr:";
+    private static final char STALE_SEPARATOR='|';
+    //热点副本key前缀 格式为 前缀{序号:key}，hash tag使各副本分布在不同的slot
+    private static final String HOT_REPLICA_PREFIX="@$%#hot##";
+    //分页列表缓存的页key前缀 格式为 前缀key:清单id:页号
+    private static final String LIST_PAGE_PREFIX="@$%#listPage##";
+    //页比清单多保留的时间，覆盖逐页写入的耗时，读取清单后页仍然存在
+    private static final long LIST_PAGE_EXTRA_TTL_MS = 60 * 1000;
+    //codec格式标识 格式为 标识(2字节) codec id(1字节) flags(1字节) [逻辑失效时间(8字节) 加载耗时(4字节)] [压缩前长度(4字节)] 内容
+    private static final byte CODEC_MAGIC_0 = 0;
+    private static final byte CODEC_MAGIC_1 = 'z';
+    private static final int CODEC_HEADER_SIZE = 4;
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_STALE = 2;
+    //本jvm内正在后台刷新的key
+    private static final Set<String> REFRESHING = ConcurrentHashMap.newKeySet();
+    //本jvm内正在加载的key
+    private static final ConcurrentMap<String, CompletableFuture<CacheValue>> IN_FLIGHT = new ConcurrentHashMap<>();
 
-    private static final  StringBuilder LUA_INCR = new StringBuilder();
-    static {
-        LUA_INCR.append(" local expire_time = ARGV[1]");
-        LUA_INCR.append(" local added = redis.call('INCR', KEYS[1])");
-        LUA_INCR.append(" if added == 1 then");
-        LUA_INCR.append(" redis.call('EXPIRE', KEYS[1], expire_time)");
-        LUA_INCR.append(" end");
-        LUA_INCR.append(" return added");
-    }
+    private static final String ASYNC_EXECUTOR_NAME = "REDIS_CACHE_ASYNC";
+    //异步接口只用于定时唤醒，不执行redis操作
+    private static final ScheduledExecutorService ASYNC_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-util-async-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final RedisScript<Long> LUA_INCR = new DefaultRedisScript<>(
+            " local expire_time = ARGV[1]"
+                    + " local added = redis.call('INCR', KEYS[1])"
+                    + " if added == 1 then"
+                    + " redis.call('EXPIRE', KEYS[1], expire_time)"
+                    + " end"
+                    + " return added", Long.class);
+
+    //锁的值为持有者token，只有持有者可以释放和续期
+    private static final String LOCK_TOKEN_PREFIX = UUID.randomUUID().toString() + ":";
+    private static final AtomicLong LOCK_SEQ = new AtomicLong();
+    private static final RedisScript<Long> LUA_UNLOCK = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) else return 0 end", Long.class);
+    private static final RedisScript<Long> LUA_RENEW = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) else return 0 end", Long.class);
+    //持有中的锁，由看门狗定时检查，持有超过三分之一租期的锁续期
+    //不为每个锁单独定时，大部分加载在第一次续期前完成，加锁只需放入集合
+    private static final Set<LockLease> LEASES = ConcurrentHashMap.newKeySet();
+    private static final long WATCHDOG_TICK_MS = 100;
+    private static final AtomicBoolean WATCHDOG_STARTED = new AtomicBoolean();
+    private static final ScheduledExecutorService LOCK_WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-util-lock-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * maxWaitTime 最长等待时间
@@ -66,12 +140,23 @@ public class RedisUtil {
         return getListCache(key, type, sp, redisTemplate, cacheConfig);
     }
     public static <T>List getListCache(String key, Type type, Supplier<List<T>> sp, RedisTemplate redisTemplate,CacheConfig cacheConfig) throws TimeoutException {
-
-        String value = lockCacheGet(key, sp, redisTemplate,cacheConfig);
-        if (value == null) {
-            return Collections.EMPTY_LIST;
+        String redisKey = namespacedKey(key, redisTemplate, cacheConfig);
+        NearCache nearCache = cacheConfig.getNearCache();
+        if (nearCache != null) {
+            Object near = nearCache.get(redisKey, type, true);
+            if (near != NearCache.MISS && (near != null || !cacheConfig.getIfNotNull())) {
+                CacheMetrics.record(key, CacheMetrics.Event.NEAR_HIT);
+                return near == null ? Collections.EMPTY_LIST : (List) near;
+            }
         }
-        return JSON.parseObject(value, new TypeReference<List<T>>(type) {});
+        //读取redis之前取失效计数，期间被失效时不写入一级缓存
+        long generation = nearCache == null ? -1 : nearCache.generation(redisKey);
+        CacheValue value = lockCacheGet(key, sp, redisTemplate,cacheConfig);
+        long beginDecode = CacheMetrics.start();
+        List<T> t = value == null ? null : value.decode(new TypeReference<List<T>>(type) {}.getType());
+        CacheMetrics.recordTime(key, CacheMetrics.Timer.DESERIALIZE, beginDecode);
+        putNearCache(redisKey, type, true, t, value, cacheConfig, generation);
+        return t == null ? Collections.EMPTY_LIST : t;
 
     }
 
@@ -138,15 +223,169 @@ public class RedisUtil {
     }
 
     public static <T>T getCache(String key, Type type, Supplier<T> sp , RedisTemplate redisTemplate, CacheConfig cacheConfig) throws TimeoutException {
+        String redisKey = namespacedKey(key, redisTemplate, cacheConfig);
         T t = null;
-        String value = lockCacheGet(key, sp, redisTemplate,cacheConfig);
-        if (value == null) {
+        NearCache nearCache = cacheConfig.getNearCache();
+        if (nearCache != null) {
+            Object near = nearCache.get(redisKey, type, false);
+            if (near != NearCache.MISS && (near != null || !cacheConfig.getIfNotNull())) {
+                CacheMetrics.record(key, CacheMetrics.Event.NEAR_HIT);
+                return (T) near;
+            }
+        }
+        //读取redis之前取失效计数，期间被失效时不写入一级缓存
+        long generation = nearCache == null ? -1 : nearCache.generation(redisKey);
+        CacheValue value = lockCacheGet(key, sp, redisTemplate,cacheConfig);
+        if (value != null) {
+            long beginDecode = CacheMetrics.start();
+            t = value.decode(type);
+            CacheMetrics.recordTime(key, CacheMetrics.Timer.DESERIALIZE, beginDecode);
+        }
+        putNearCache(redisKey, type, false, t, value, cacheConfig, generation);
+        return t;
+
+    }
+
+    /**
+     * 分页读取列表缓存，from包含to不包含，超出范围的部分忽略
+     * 列表按listChunkSize分页存储在单独的key中，key本身只保存清单，只读取范围内的页
+     * 与getListCache的存储格式不同，同一个key不能混用；不使用一级缓存
+     * @param sp 加载列表，可以返回按需读取的Iterable（如数据库游标），加载时逐页写入
+     */
+    public static <T>List<T> getListCacheRange(String key, Type type, int from, int to, Supplier<? extends Iterable<T>> sp, RedisTemplate redisTemplate, CacheConfig cacheConfig) throws TimeoutException {
+        String redisKey = namespacedKey(key, redisTemplate, cacheConfig);
+        Type listType = new TypeReference<List<T>>(type) {}.getType();
+        for (int attempt = 0; ; attempt++) {
+            ListManifest manifest = getListManifest(key, redisKey, sp, redisTemplate, cacheConfig);
+            int begin = Math.max(from, 0);
+            int end = manifest == null ? 0 : Math.min(to, manifest.size);
+            if (begin >= end) {
+                return new ArrayList<>();
+            }
+            int firstPage = begin / manifest.chunkSize;
+            int lastPage = (end - 1) / manifest.chunkSize;
+            List<CacheValue> pages = getListPages(key, redisKey, manifest, firstPage, lastPage, redisTemplate);
+            if (pages != null) {
+                long beginDecode = CacheMetrics.start();
+                List<T> result = new ArrayList<>(end - begin);
+                for (int i = firstPage; i <= lastPage; i++) {
+                    List<T> page = pages.get(i - firstPage).decode(listType);
+                    int pageBegin = i * manifest.chunkSize;
+                    result.addAll(page.subList(Math.max(begin - pageBegin, 0), Math.min(end - pageBegin, page.size())));
+                }
+                CacheMetrics.recordTime(key, CacheMetrics.Timer.DESERIALIZE, beginDecode);
+                return result;
+            }
+            if (attempt > 0) {
+                throw new RedisInvalidException("redis 分页缓存不完整");
+            }
+            //页先于清单失效或被淘汰，删除清单后重新加载
+            deleteCache(redisKey, redisTemplate, cacheConfig);
+        }
+    }
+
+    /**
+     * 按需读取的列表缓存，每次读取一页并解析，存储格式与getListCacheRange相同
+     * 创建时读取清单（未命中时加载），遍历中页失效时抛出RedisInvalidException
+     */
+    public static <T>Iterator<T> getListCacheIterator(String key, Type type, Supplier<? extends Iterable<T>> sp, RedisTemplate redisTemplate, CacheConfig cacheConfig) throws TimeoutException {
+        String redisKey = namespacedKey(key, redisTemplate, cacheConfig);
+        ListManifest manifest = getListManifest(key, redisKey, sp, redisTemplate, cacheConfig);
+        if (manifest == null) {
+            return Collections.emptyIterator();
+        }
+        return new ListPageIterator<>(key, redisKey, manifest, new TypeReference<List<T>>(type) {}.getType(), redisTemplate);
+    }
+
+    /**
+     * 清单按key加载，页写入redisKey下
+     */
+    private static ListManifest getListManifest(String key, String redisKey, Supplier<? extends Iterable<?>> sp, RedisTemplate redisTemplate, CacheConfig cacheConfig) throws TimeoutException {
+        CacheValue value = lockCacheGet(key, () -> setListPages(redisKey, sp.get(), redisTemplate, cacheConfig), redisTemplate, cacheConfig);
+        return value == null || value.isEmpty() ? null : ListManifest.parse(value.decode(String.class));
+    }
+
+    /**
+     * 逐页写入，每次加载使用新的清单id，读取旧清单的请求不受影响，旧页到期后自然失效
+     * @return 清单，列表为空时返回空
+     */
+    private static String setListPages(String key, Iterable<?> list, RedisTemplate redisTemplate, CacheConfig cacheConfig) {
+        if (list == null) {
             return null;
         }
-        t = JSON.parseObject(value, type);
+        int chunkSize = Math.max(cacheConfig.getListChunkSize(), 1);
+        String id = UUID.randomUUID().toString();
+        long timeout = cacheConfig.getExpireTimeMs() + Math.max(cacheConfig.getStaleTimeMs(), 0) + LIST_PAGE_EXTRA_TTL_MS;
+        List<Object> page = new ArrayList<>(chunkSize);
+        int size = 0;
+        for (Object element : list) {
+            page.add(element);
+            size++;
+            if (page.size() == chunkSize) {
+                setRaw(redisTemplate, listPageKey(key, id, size / chunkSize - 1), toRaw(encodeValue(page, cacheConfig, 0, 0), cacheConfig, redisTemplate), timeout, TimeUnit.MILLISECONDS);
+                page = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!page.isEmpty()) {
+            setRaw(redisTemplate, listPageKey(key, id, size / chunkSize), toRaw(encodeValue(page, cacheConfig, 0, 0), cacheConfig, redisTemplate), timeout, TimeUnit.MILLISECONDS);
+        }
+        return size == 0 ? null : new ListManifest(id, size, chunkSize).toString();
+    }
 
-        return t;
+    /**
+     * @param key 业务key，用于统计
+     * @param redisKey 加上命名空间后的key
+     * @return 第firstPage到lastPage页，有页不存在时返回空
+     */
+    private static List<CacheValue> getListPages(String key, String redisKey, ListManifest manifest, int firstPage, int lastPage, RedisTemplate redisTemplate) {
+        List<byte[]> values;
+        try {
+            RedisSerializer keySerializer = redisTemplate.getKeySerializer();
+            byte[][] rawKeys = new byte[lastPage - firstPage + 1][];
+            for (int i = 0; i < rawKeys.length; i++) {
+                rawKeys[i] = keySerializer.serialize(listPageKey(redisKey, manifest.id, firstPage + i));
+            }
+            long begin = CacheMetrics.start();
+            values = (List<byte[]>) redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+            CacheMetrics.recordTime(key, CacheMetrics.Timer.REDIS, begin);
+        }catch (Exception e){
+            throw new RedisInvalidException("redis mget 异常",e);
+        }
+        List<CacheValue> pages = new ArrayList<>(lastPage - firstPage + 1);
+        for (int i = 0; i <= lastPage - firstPage; i++) {
+            CacheValue page = values == null ? null : parseValue(values.get(i), redisTemplate);
+            if (page == null || page.isEmpty()) {
+                return null;
+            }
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    private static String listPageKey(String key, String id, int index) {
+        return LIST_PAGE_PREFIX + key + ":" + id + ":" + index;
+    }
 
+    /**
+     * 一级缓存时间不超过redis的失效时间，空值按nullExpireTimeMs计算
+     * 不允许为空时不缓存空值
+     */
+    private static void putNearCache(String key, Type type, boolean list, Object t, CacheValue value, CacheConfig cacheConfig, long generation) {
+        NearCache nearCache = cacheConfig.getNearCache();
+        if (nearCache == null) {
+            return;
+        }
+        long redisTtl = cacheConfig.getExpireTimeMs();
+        if (value == null) {
+            if (cacheConfig.getIfNotNull()) {
+                return;
+            }
+            if (cacheConfig.getNullExpireTimeMs() > 0) {
+                redisTtl = cacheConfig.getNullExpireTimeMs();
+            }
+        }
+        long ttl = cacheConfig.getNearCacheTtlMs() > 0 ? Math.min(cacheConfig.getNearCacheTtlMs(), redisTtl) : redisTtl;
+        nearCache.put(key, type, list, t, value == null ? 0 : value.weight(), ttl, generation);
     }
 
     /**
@@ -176,6 +415,200 @@ public class RedisUtil {
         return getCacheNotNull(key, type,  sp,  expireTime, timeUnit, redisTemplate, WAIT_TIME_OUT_SEC);
     }
 
+    /**
+     * 批量获取缓存，一次MGET读取所有key
+     * 未命中的key合并后只调用一次missLoader，结果通过pipeline写回，每个key单独设置失效时间
+     * missLoader未返回或返回空的key同样缓存EMPTY_STRING，防止缓存穿透
+     * 不加分布式锁，需要防击穿的热点key请使用getCache
+     * @param keys redis key
+     * @param type 单个value的类型
+     * @param missLoader 入参为未命中的key，返回key对应的值
+     * @param redisTemplate redisTemplate
+     * @param cacheConfig 使用expireTimeMs nullExpireTimeMs staleTimeMs ifNotNull nearCache
+     * @return 只包含非空结果
+     */
+    public static <V>Map<String, V> getCacheBatch(Collection<String> keys, Type type, Function<Set<String>, Map<String, V>> missLoader, RedisTemplate redisTemplate, CacheConfig cacheConfig) {
+        Map<String, V> results = new HashMap<>();
+        if (keys == null || keys.isEmpty()) {
+            return results;
+        }
+        //同一批使用同一个版本，redis key为prefix+key，返回结果和missLoader使用原key
+        String prefix = namespacedKey("", redisTemplate, cacheConfig);
+        NearCache nearCache = cacheConfig.getNearCache();
+        Map<String, Long> generations = nearCache == null ? null : new HashMap<>();
+        List<String> redisKeys = new ArrayList<>(keys.size());
+        for (String key : new LinkedHashSet<>(keys)) {
+            if (!mightExist(key, redisTemplate, cacheConfig)) {
+                continue;
+            }
+            if (nearCache != null) {
+                Object near = nearCache.get(prefix + key, type, false);
+                if (near != NearCache.MISS && (near != null || !cacheConfig.getIfNotNull())) {
+                    CacheMetrics.record(key, CacheMetrics.Event.NEAR_HIT);
+                    if (near != null) {
+                        results.put(key, (V) near);
+                    }
+                    continue;
+                }
+                generations.put(key, nearCache.generation(prefix + key));
+            }
+            redisKeys.add(key);
+        }
+        if (redisKeys.isEmpty()) {
+            return results;
+        }
+        List<byte[]> values;
+        try {
+            RedisSerializer keySerializer = redisTemplate.getKeySerializer();
+            byte[][] rawKeys = new byte[redisKeys.size()][];
+            for (int i = 0; i < rawKeys.length; i++) {
+                rawKeys[i] = keySerializer.serialize(prefix + redisKeys.get(i));
+            }
+            values = (List<byte[]>) redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+        }catch (Exception e){
+            throw new RedisInvalidException("redis mget 异常",e);
+        }
+        Set<String> misses = new LinkedHashSet<>();
+        for (int i = 0; i < redisKeys.size(); i++) {
+            String key = redisKeys.get(i);
+            CacheValue value = parseValue(values == null ? null : values.get(i), redisTemplate);
+            if (value == null || (cacheConfig.getIfNotNull() && value.isEmpty())) {
+                misses.add(key);
+                continue;
+            }
+            V v = value.isEmpty() ? null : value.decode(type);
+            if (v != null) {
+                results.put(key, v);
+            }
+            putNearCache(prefix + key, type, false, v, value.isEmpty() ? null : value, cacheConfig, nearCache == null ? -1 : generations.get(key));
+        }
+        if (misses.isEmpty()) {
+            return results;
+        }
+        long beginLoad = System.currentTimeMillis();
+        Map<String, V> loaded = missLoader.apply(misses);
+        long now = System.currentTimeMillis();
+        long expireTimeMs = cacheConfig.getExpireTimeMs();
+        long nullExpireTimeMs = cacheConfig.getNullExpireTimeMs() > 0 ? cacheConfig.getNullExpireTimeMs() : expireTimeMs;
+        //与doQueryCache一致，开启staleTimeMs时写入逻辑失效时间并延长物理失效时间
+        long logicalExpireAt = cacheConfig.getStaleTimeMs() > 0 ? now + expireTimeMs : 0;
+        long timeout = cacheConfig.getStaleTimeMs() > 0 ? expireTimeMs + cacheConfig.getStaleTimeMs() : expireTimeMs;
+        List<String> writeKeys = new ArrayList<>(misses.size());
+        List<byte[]> writeValues = new ArrayList<>(misses.size());
+        List<Long> writeTimeouts = new ArrayList<>(misses.size());
+        for (String key : misses) {
+            V v = loaded == null ? null : loaded.get(key);
+            writeKeys.add(prefix + key);
+            if (isEmptyValue(v)) {
+                writeValues.add(toRaw(null, cacheConfig, redisTemplate));
+                writeTimeouts.add(nullExpireTimeMs);
+                continue;
+            }
+            CacheValue value = encodeValue(v, cacheConfig, logicalExpireAt, now - beginLoad);
+            writeValues.add(toRaw(value, cacheConfig, redisTemplate));
+            writeTimeouts.add(timeout);
+            results.put(key, v);
+            putNearCache(prefix + key, type, false, v, value, cacheConfig, nearCache == null ? -1 : generations.get(key));
+        }
+        //批量读取只读第0个副本，写入时同样写入全部副本
+        int replicas = cacheConfig.getHotKeyReplicas();
+        for (int i = 0, size = writeKeys.size(); replicas > 1 && i < size; i++) {
+            for (int r = 1; r < replicas; r++) {
+                writeKeys.add(replicaKey(writeKeys.get(i), r));
+                writeValues.add(writeValues.get(i));
+                writeTimeouts.add(writeTimeouts.get(i));
+            }
+        }
+        pipelineSet(redisTemplate, writeKeys, writeValues, writeTimeouts);
+        return results;
+    }
+
+    /**
+     * pipeline批量写入，value为空时写入EMPTY_STRING并使用nullExpireTimeMs
+     * 集群模式下spring不支持跨slot的pipeline，逐个写入
+     */
+    public static void setBatch(RedisTemplate redisTemplate, Map<String, String> values, long expireTimeMs, long nullExpireTimeMs) throws RedisInvalidException {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        RedisSerializer valueSerializer = redisTemplate.getValueSerializer();
+        List<String> keys = new ArrayList<>(values.size());
+        List<byte[]> rawValues = new ArrayList<>(values.size());
+        List<Long> timeouts = new ArrayList<>(values.size());
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            keys.add(entry.getKey());
+            rawValues.add(valueSerializer.serialize(entry.getValue() == null ? EMPTY_STRING : entry.getValue()));
+            timeouts.add(entry.getValue() == null ? nullExpireTimeMs : expireTimeMs);
+        }
+        pipelineSet(redisTemplate, keys, rawValues, timeouts);
+    }
+
+    /**
+     * 按getCache的格式写入已加载的值，包括staleTimeMs和热点副本，用于预热 见 RedisCacheWarmer
+     * loaded中没有的key按空值写入，失效时间随机增加0~jitterMs，避免同时失效
+     */
+    static void setLoaded(Collection<String> keys, Map<String, ?> loaded, long jitterMs, RedisTemplate redisTemplate, CacheConfig cacheConfig) throws RedisInvalidException {
+        long expireTimeMs = cacheConfig.getExpireTimeMs();
+        long nullExpireTimeMs = cacheConfig.getNullExpireTimeMs() > 0 ? cacheConfig.getNullExpireTimeMs() : expireTimeMs;
+        int replicas = Math.max(cacheConfig.getHotKeyReplicas(), 1);
+        long now = System.currentTimeMillis();
+        List<String> writeKeys = new ArrayList<>(keys.size() * replicas);
+        List<byte[]> writeValues = new ArrayList<>(keys.size() * replicas);
+        List<Long> writeTimeouts = new ArrayList<>(keys.size() * replicas);
+        for (String key : keys) {
+            Object v = loaded == null ? null : loaded.get(key);
+            long jitter = jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0;
+            byte[] raw;
+            long timeout;
+            if (isEmptyValue(v)) {
+                raw = toRaw(null, cacheConfig, redisTemplate);
+                timeout = nullExpireTimeMs + jitter;
+            } else {
+                long logicalExpireAt = cacheConfig.getStaleTimeMs() > 0 ? now + expireTimeMs + jitter : 0;
+                timeout = expireTimeMs + jitter + Math.max(cacheConfig.getStaleTimeMs(), 0);
+                raw = toRaw(encodeValue(v, cacheConfig, logicalExpireAt, 0), cacheConfig, redisTemplate);
+            }
+            String redisKey = namespacedKey(key, redisTemplate, cacheConfig);
+            for (int r = 0; r < replicas; r++) {
+                writeKeys.add(replicaKey(redisKey, r));
+                writeValues.add(raw);
+                writeTimeouts.add(timeout);
+            }
+        }
+        pipelineSet(redisTemplate, writeKeys, writeValues, writeTimeouts);
+    }
+
+    private static void pipelineSet(RedisTemplate redisTemplate, List<String> keys, List<byte[]> values, List<Long> timeoutsMs) throws RedisInvalidException {
+        try {
+            RedisSerializer keySerializer = redisTemplate.getKeySerializer();
+            RedisCallback<Object> callback = connection -> {
+                for (int i = 0; i < keys.size(); i++) {
+                    connection.set(keySerializer.serialize(keys.get(i)), values.get(i),
+                            Expiration.milliseconds(timeoutsMs.get(i)), RedisStringCommands.SetOption.upsert());
+                }
+                return null;
+            };
+            if (isCluster(redisTemplate)) {
+                redisTemplate.execute(callback);
+            } else {
+                redisTemplate.executePipelined(callback);
+            }
+        }catch (Exception e){
+            throw new RedisInvalidException("redis set 异常",e);
+        }
+    }
+
+    /**
+     * 集群模式下pipeline不可用，批量操作改为逐个执行
+     */
+    static boolean isCluster(RedisTemplate redisTemplate) {
+        RedisConnectionFactory connectionFactory = redisTemplate.getConnectionFactory();
+        if (connectionFactory instanceof JedisConnectionFactory) {
+            return ((JedisConnectionFactory) connectionFactory).isRedisClusterAware();
+        }
+        return connectionFactory instanceof LettuceConnectionFactory && ((LettuceConnectionFactory) connectionFactory).isClusterAware();
+    }
+
     /**
      * 在CPU和反应时间中尽量均衡
      * @param key
@@ -186,31 +619,137 @@ public class RedisUtil {
      * @return
      * @throws TimeoutException
      */
-    private static <T>String lockCacheGet(String key, Supplier<T> sp , RedisTemplate redisTemplate, CacheConfig cacheConfig) throws TimeoutException {
-        String value = getFromRedis(key,  redisTemplate);
+    private static <T>CacheValue lockCacheGet(String key, Supplier<T> sp , RedisTemplate redisTemplate, CacheConfig cacheConfig) throws TimeoutException {
+        if (!mightExist(key, redisTemplate, cacheConfig)) {
+            CacheMetrics.record(key, CacheMetrics.Event.BLOOM_REJECT);
+            return null;
+        }
+        recordHotKey(key, cacheConfig);
+        CacheValue value = readCache(key, redisTemplate, cacheConfig);
         if (value != null) {
-            return dealValue(value, cacheConfig.getIfNotNull(), sp, key, cacheConfig.getExpireTimeMs(),cacheConfig.getNullExpireTimeMs(), redisTemplate);
+            CacheMetrics.record(key, value.isEmpty() ? CacheMetrics.Event.NULL_HIT : CacheMetrics.Event.HIT);
+            return dealValue(value, sp, key, cacheConfig, redisTemplate);
         }
+        CacheMetrics.record(key, CacheMetrics.Event.MISS);
         long beginWait = System.currentTimeMillis();
+        //同一个jvm内同一个key只有一个线程去竞争分布式锁并加载，其余线程等待其结果
+        String flightKey = cacheConfig.getIfNotNull() ? key + NOT_NULL_FLIGHT_SUFFIX : key;
+        CompletableFuture<CacheValue> flight = new CompletableFuture<>();
+        CompletableFuture<CacheValue> existing = IN_FLIGHT.putIfAbsent(flightKey, flight);
+        if (existing != null) {
+            CacheMetrics.record(key, CacheMetrics.Event.COALESCED);
+            return waitInFlight(key, existing, beginWait, cacheConfig);
+        }
+        try {
+            value = lockCacheLoad(key, sp, redisTemplate, cacheConfig, beginWait);
+            //等待的线程各自反序列化，不共享加载得到的对象
+            flight.complete(value == null ? null : value.shared());
+            return value;
+        } catch (Throwable e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_FLIGHT.remove(flightKey, flight);
+        }
+    }
+
+    /**
+     * 布隆过滤器判断一定不存在的key不再访问缓存和数据库
+     * 不允许为空时说明数据可能被直接修改，不使用过滤器
+     */
+    private static boolean mightExist(String key, RedisTemplate redisTemplate, CacheConfig cacheConfig) {
+        RedisBloomFilter bloomFilter = cacheConfig.getBloomFilter();
+        return bloomFilter == null || cacheConfig.getIfNotNull() || bloomFilter.mightContainKey(redisTemplate, key);
+    }
+
+    /**
+     * 配置了命名空间时加上命名空间和当前版本，见 CacheNamespace
+     */
+    static String namespacedKey(String key, RedisTemplate redisTemplate, CacheConfig cacheConfig) {
+        CacheNamespace namespace = cacheConfig.getNamespace();
+        return namespace == null ? key : namespace.key(redisTemplate, key);
+    }
+
+    private static CacheValue waitInFlight(String key, CompletableFuture<CacheValue> flight, long beginWait, CacheConfig cacheConfig) throws TimeoutException {
+        try {
+            if (cacheConfig.getMaxWaitTimeMs() <= 0) {
+                if (!flight.isDone()) {
+                    CacheMetrics.record(key, CacheMetrics.Event.LOCK_FAILED);
+                    throw new LockedFailedException("获取锁失败");
+                }
+                return flight.get();
+            }
+            long remain = cacheConfig.getMaxWaitTimeMs() - (System.currentTimeMillis() - beginWait);
+            return flight.get(Math.max(remain, 0), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException("等待中断！");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw new TimeoutException(cause.getMessage());
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RedisInvalidException("加载缓存异常", cause);
+        } catch (TimeoutException e) {
+            CacheMetrics.record(key, CacheMetrics.Event.TIMEOUT);
+            throw new TimeoutException("等待超时！");
+        }
+    }
+
+    private static <T>CacheValue lockCacheLoad(String key, Supplier<T> sp , RedisTemplate redisTemplate, CacheConfig cacheConfig, long beginWait) throws TimeoutException {
+        CacheValue value;
+        boolean waited = false;
         for ( ; ; ) {
             if(cacheConfig.getMaxWaitTimeMs() >0 && (System.currentTimeMillis()-beginWait)> cacheConfig.getMaxWaitTimeMs()){
+                CacheMetrics.record(key, CacheMetrics.Event.TIMEOUT);
                 throw new TimeoutException("等待超时！");
             }
-            if (lockByKey(key, cacheConfig.getLockTimeMs(),  redisTemplate)) {
+            LockLease lease = lockByKey(key, cacheConfig.getLockTimeMs(),  redisTemplate);
+            if (lease != null) {
                 try {
-                    value = getFromRedis(key, redisTemplate);
+                    value = readCache(key, redisTemplate, cacheConfig);
                     if(value != null){
-                        return dealValue(value, cacheConfig.getIfNotNull(), sp, key, cacheConfig.getExpireTimeMs(),cacheConfig.getNullExpireTimeMs(), redisTemplate);
+                        return dealValue(value, sp, key, cacheConfig, redisTemplate);
+                    }
+                    value = doQueryCache(sp, key, cacheConfig, redisTemplate);
+                    if (cacheConfig.isLoadNotify()) {
+                        CacheLoadNotifier.publish(redisTemplate, key);
                     }
+                    return value;
                 }finally {
-                    unlockByKey(key, redisTemplate);
+                    unlockByKey(lease, redisTemplate);
                 }
             }else if(cacheConfig.getMaxWaitTimeMs()<=0){
+                CacheMetrics.record(key, CacheMetrics.Event.LOCK_FAILED);
                 throw new LockedFailedException("获取锁失败");
             }
-            value = getFromRedis(key, redisTemplate);
-            if (value != null) {
-                return dealValue(value, cacheConfig.getIfNotNull(), sp, key, cacheConfig.getExpireTimeMs(),cacheConfig.getNullExpireTimeMs(), redisTemplate);
+            CacheMetrics.record(key, waited ? CacheMetrics.Event.WAIT_LOOP : CacheMetrics.Event.LOCK_WAIT);
+            waited = true;
+            //先注册再读取，读取之后发布的通知不会丢失
+            CompletableFuture<Void> signal = cacheConfig.isLoadNotify() && CacheLoadNotifier.isListening() ? CacheLoadNotifier.register(key) : null;
+            try {
+                value = readCache(key, redisTemplate, cacheConfig);
+                if (value != null) {
+                    return dealValue(value, sp, key, cacheConfig, redisTemplate);
+                }
+                if (signal != null) {
+                    long remain = cacheConfig.getMaxWaitTimeMs() - (System.currentTimeMillis() - beginWait);
+                    CacheLoadNotifier.await(signal, Math.max(1, Math.min(remain, cacheConfig.getLoadNotifyFallbackMs())));
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TimeoutException("等待中断！");
+            } finally {
+                if (signal != null) {
+                    CacheLoadNotifier.unregister(key, signal);
+                }
             }
             try {
                 Thread.sleep(cacheConfig.getWaitSleepTimeMs());
@@ -221,68 +760,324 @@ public class RedisUtil {
         }
     }
 
-    private static <T> String dealValue(String value, boolean notNull, Supplier<T> sp, String key, Long expireTimeMs,Long nullExpireTimeMs, RedisTemplate redisTemplate) {
-        value = unpackingValue(value);
-        if(notNull && value == null){
-            return doQueryCache(sp, key, expireTimeMs, nullExpireTimeMs, redisTemplate);
+    private static <T> CacheValue dealValue(CacheValue value, Supplier<T> sp, String key, CacheConfig cacheConfig, RedisTemplate redisTemplate) {
+        if (value.logicalExpireAt > 0 && shouldRefresh(value.logicalExpireAt, value.loadTimeMs, cacheConfig)) {
+            refreshAsync(key, sp, value.logicalExpireAt, redisTemplate, cacheConfig);
+        }
+        if (!value.isEmpty()) {
+            return value;
+        }
+        if(cacheConfig.getIfNotNull()){
+            return doQueryCache(sp, key, cacheConfig, redisTemplate);
         }
-        return value;
+        return null;
     }
 
-    private static String unpackingValue(String value) {
-        if (EMPTY_STRING.equals(value)) {
+    /**
+     * 解析redis中的原始内容
+     * 带codec格式标识的按codec解析，否则按原有的json字符串解析，兼容切换codec前写入的数据
+     */
+    private static CacheValue parseValue(byte[] raw, RedisTemplate redisTemplate) {
+        if (raw == null) {
             return null;
         }
-        return value;
+        if (raw.length >= CODEC_HEADER_SIZE && raw[0] == CODEC_MAGIC_0 && raw[1] == CODEC_MAGIC_1) {
+            CacheCodec codec = CacheCodecs.get(raw[2]);
+            int flags = raw[3];
+            ByteBuffer buffer = ByteBuffer.wrap(raw, CODEC_HEADER_SIZE, raw.length - CODEC_HEADER_SIZE);
+            long logicalExpireAt = 0;
+            long loadTimeMs = 0;
+            if ((flags & FLAG_STALE) != 0) {
+                logicalExpireAt = buffer.getLong();
+                loadTimeMs = buffer.getInt();
+            }
+            if ((flags & FLAG_COMPRESSED) != 0) {
+                int rawLength = buffer.getInt();
+                byte[] body = CacheCodecs.decompress(raw, buffer.position(), buffer.remaining(), rawLength);
+                return new CacheValue(body, 0, body.length, codec, null, logicalExpireAt, loadTimeMs);
+            }
+            return new CacheValue(raw, buffer.position(), buffer.remaining(), codec, null, logicalExpireAt, loadTimeMs);
+        }
+        Object o = redisTemplate.getValueSerializer().deserialize(raw);
+        return o == null ? null : parseValue(o.toString());
+    }
+
+    private static CacheValue parseValue(String value) {
+        long logicalExpireAt = 0;
+        long loadTimeMs = 0;
+        if (value.startsWith(STALE_PREFIX)) {
+            int end = value.indexOf(STALE_SEPARATOR);
+            int split = value.indexOf(':', STALE_PREFIX.length());
+            logicalExpireAt = Long.parseLong(value.substring(STALE_PREFIX.length(), split));
+            loadTimeMs = Long.parseLong(value.substring(split + 1, end));
+            value = value.substring(end + 1);
+        }
+        if (EMPTY_STRING.equals(value)) {
+            return new CacheValue(null, null, logicalExpireAt, loadTimeMs);
+        }
+        return new CacheValue(value, null, logicalExpireAt, loadTimeMs);
+    }
+
+    /**
+     * 写入redis的原始内容，空值统一写入EMPTY_STRING
+     */
+    private static byte[] toRaw(CacheValue value, CacheConfig cacheConfig, RedisTemplate redisTemplate) {
+        RedisSerializer valueSerializer = redisTemplate.getValueSerializer();
+        if (value == null || value.isEmpty()) {
+            return valueSerializer.serialize(EMPTY_STRING);
+        }
+        if (value.codec == null) {
+            String stored = (String) value.payload;
+            if (value.logicalExpireAt > 0) {
+                stored = STALE_PREFIX + value.logicalExpireAt + ":" + value.loadTimeMs + STALE_SEPARATOR + stored;
+            }
+            return valueSerializer.serialize(stored);
+        }
+        byte[] body = (byte[]) value.payload;
+        int flags = 0;
+        int headerSize = CODEC_HEADER_SIZE;
+        if (value.logicalExpireAt > 0) {
+            flags |= FLAG_STALE;
+            headerSize += 12;
+        }
+        byte[] compressed = null;
+        if (cacheConfig.getCompressThresholdBytes() > 0 && value.length >= cacheConfig.getCompressThresholdBytes()) {
+            compressed = CacheCodecs.compress(value.length == body.length ? body : Arrays.copyOfRange(body, value.offset, value.offset + value.length));
+            //压缩效果不明显时不压缩
+            if (compressed.length + 4 < value.length) {
+                flags |= FLAG_COMPRESSED;
+                headerSize += 4;
+            } else {
+                compressed = null;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + (compressed != null ? compressed.length : value.length));
+        buffer.put(CODEC_MAGIC_0).put(CODEC_MAGIC_1).put(value.codec.id()).put((byte) flags);
+        if (value.logicalExpireAt > 0) {
+            buffer.putLong(value.logicalExpireAt).putInt((int) value.loadTimeMs);
+        }
+        if (compressed != null) {
+            buffer.putInt(value.length).put(compressed);
+        } else {
+            buffer.put(body, value.offset, value.length);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 未配置codec时使用json字符串，与原有格式一致
+     */
+    private static CacheValue encodeValue(Object t, CacheConfig cacheConfig, long logicalExpireAt, long loadTimeMs) {
+        CacheCodec codec = cacheConfig.getCodec();
+        if (codec == null) {
+            String json = JSON.toJSONString(t);
+            return new CacheValue(json, t, logicalExpireAt, loadTimeMs);
+        }
+        byte[] body = codec.encode(t);
+        return new CacheValue(body, 0, body.length, codec, t, logicalExpireAt, loadTimeMs);
+    }
+
+    private static boolean isEmptyValue(Object t) {
+        return t == null || (t instanceof Collection && ((Collection) t).isEmpty());
+    }
+
+    /**
+     * 超过逻辑失效时间需要刷新
+     * 配置了earlyRefreshBeta时按XFetch提前刷新，越接近失效时间概率越大，加载越慢越早刷新
+     */
+    private static boolean shouldRefresh(long logicalExpireAt, long loadTimeMs, CacheConfig cacheConfig) {
+        long now = System.currentTimeMillis();
+        if (now >= logicalExpireAt) {
+            return true;
+        }
+        if (cacheConfig.getEarlyRefreshBeta() <= 0) {
+            return false;
+        }
+        double gap = -Math.max(loadTimeMs, 1) * cacheConfig.getEarlyRefreshBeta() * Math.log(ThreadLocalRandom.current().nextDouble());
+        return now + gap >= logicalExpireAt;
+    }
 
+    /**
+     * 后台刷新，调用方直接返回旧值
+     * 本jvm内同一个key只提交一次，多节点之间通过分布式锁保证只有一个节点加载
+     */
+    private static <T> void refreshAsync(String key, Supplier<T> sp, long logicalExpireAt, RedisTemplate redisTemplate, CacheConfig cacheConfig) {
+        if (!REFRESHING.add(key)) {
+            return;
+        }
+        CacheMetrics.record(key, CacheMetrics.Event.REFRESH);
+        try {
+            ThreadPoolUtil.execute(cacheConfig.getRefreshExecutorName(), () -> {
+                try {
+                    LockLease lease = lockByKey(key, cacheConfig.getLockTimeMs(), redisTemplate);
+                    if (lease == null) {
+                        return;
+                    }
+                    try {
+                        CacheValue current = readCache(key, redisTemplate, cacheConfig);
+                        //其他节点已经刷新过则跳过
+                        if (current != null && current.logicalExpireAt != logicalExpireAt) {
+                            return;
+                        }
+                        doQueryCache(sp, key, cacheConfig, redisTemplate);
+                        //各节点一级缓存中仍是旧值
+                        NearCache.invalidate(redisTemplate, namespacedKey(key, redisTemplate, cacheConfig));
+                    } finally {
+                        unlockByKey(lease, redisTemplate);
+                    }
+                } catch (Exception e) {
+                    LOGGER.error("refresh cache error, key:" + key, e);
+                } finally {
+                    REFRESHING.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            REFRESHING.remove(key);
+            LOGGER.error("refresh cache rejected, key:" + key, e);
+        }
     }
 
-    private static <T> String doQueryCache(Supplier<T> sp,String key,  Long expireTimeMs,Long nullExpireTimeMs, RedisTemplate redisTemplate) {
-        T t = sp.get();
+    private static <T> CacheValue doQueryCache(Supplier<T> sp, String key, CacheConfig cacheConfig, RedisTemplate redisTemplate) {
+        long expireTimeMs = cacheConfig.getExpireTimeMs();
+        long nullExpireTimeMs = cacheConfig.getNullExpireTimeMs() > 0 ? cacheConfig.getNullExpireTimeMs() : expireTimeMs;
+        long beginLoad = System.currentTimeMillis();
+        long beginLoadNanos = CacheMetrics.start();
+        CacheMetrics.record(key, CacheMetrics.Event.LOAD);
+        T t;
         try {
-            if (t == null || (t instanceof Collection && ((Collection) t).isEmpty())) {
-                setRedis(key, null, nullExpireTimeMs == null ? expireTimeMs : nullExpireTimeMs, TimeUnit.MILLISECONDS,redisTemplate);
+            t = sp.get();
+        } catch (RuntimeException e) {
+            CacheMetrics.record(key, CacheMetrics.Event.LOAD_ERROR);
+            throw e;
+        }
+        CacheMetrics.recordTime(key, CacheMetrics.Timer.LOAD, beginLoadNanos);
+        try {
+            if (isEmptyValue(t)) {
+                writeCache(key, toRaw(null, cacheConfig, redisTemplate), nullExpireTimeMs, redisTemplate, cacheConfig);
                 return null;
             }
-            String res = JSON.toJSONString(t);
-            setRedis(key, res, expireTimeMs, TimeUnit.MILLISECONDS,redisTemplate);
+            long now = System.currentTimeMillis();
+            //逻辑失效时间存在value中，物理失效时间延长staleTimeMs，期间返回旧值并后台刷新
+            long logicalExpireAt = cacheConfig.getStaleTimeMs() > 0 ? now + expireTimeMs : 0;
+            long timeout = cacheConfig.getStaleTimeMs() > 0 ? expireTimeMs + cacheConfig.getStaleTimeMs() : expireTimeMs;
+            long beginEncode = CacheMetrics.start();
+            CacheValue value = encodeValue(t, cacheConfig, logicalExpireAt, now - beginLoad);
+            byte[] raw = toRaw(value, cacheConfig, redisTemplate);
+            CacheMetrics.recordTime(key, CacheMetrics.Timer.SERIALIZE, beginEncode);
+            writeCache(key, raw, timeout, redisTemplate, cacheConfig);
+            return value;
         }catch (RedisInvalidException e){
             LOGGER.error("invalid redis error", e);
             throw e;
         }
-        if (t == null || (t instanceof Collection && ((Collection) t).isEmpty())) {
-            return null;
-        }
-        String res = JSON.toJSONString(t);
-        return res;
 
     }
 
 
-    private static Boolean lockByKey(String key,  Long lockTimeMs, RedisTemplate redisTemplate) throws RedisInvalidException {
-        key = getLockKey(key);
-        return transLock(key, lockTimeMs, TimeUnit.MILLISECONDS, redisTemplate);
+    /**
+     * 获取加载锁，锁的值为本次持有的token，租期为lockTimeMs
+     * 持有期间由看门狗续期，持有者宕机后最多lockTimeMs即可被其他节点获取
+     * 看门狗每WATCHDOG_TICK_MS检查一次，lockTimeMs请不要小于1秒
+     * @return 未获取到返回null
+     */
+    private static LockLease lockByKey(String key, long lockTimeMs, RedisTemplate redisTemplate) throws RedisInvalidException {
+        byte[] rawKey = redisTemplate.getKeySerializer().serialize(getLockKey(key));
+        byte[] token = (LOCK_TOKEN_PREFIX + LOCK_SEQ.incrementAndGet()).getBytes(StandardCharsets.UTF_8);
+        Boolean locked;
+        try {
+            locked = (Boolean) redisTemplate.execute((RedisCallback<Boolean>) connection ->
+                    connection.set(rawKey, token, Expiration.milliseconds(lockTimeMs), RedisStringCommands.SetOption.ifAbsent()));
+        }catch (Exception e){
+            throw new RedisInvalidException("redis setIfAbsent 异常",e);
+        }
+        if (!Boolean.TRUE.equals(locked)) {
+            return null;
+        }
+        LockLease lease = new LockLease(key, rawKey, token, lockTimeMs, redisTemplate);
+        if (!WATCHDOG_STARTED.get() && WATCHDOG_STARTED.compareAndSet(false, true)) {
+            LOCK_WATCHDOG.scheduleWithFixedDelay(RedisUtil::renewLocks, WATCHDOG_TICK_MS, WATCHDOG_TICK_MS, TimeUnit.MILLISECONDS);
+        }
+        LEASES.add(lease);
+        return lease;
+    }
+
+    private static void renewLocks() {
+        long now = System.currentTimeMillis();
+        for (LockLease lease : LEASES) {
+            if (now < lease.renewAt) {
+                continue;
+            }
+            try {
+                byte[] ttl = String.valueOf(lease.leaseMs).getBytes(StandardCharsets.UTF_8);
+                Long renewed = (Long) lease.redisTemplate.execute((RedisCallback<Long>) connection ->
+                        evalScript(connection, LUA_RENEW, ReturnType.INTEGER, 1, lease.rawKey, lease.token, ttl));
+                if (renewed == null || renewed == 0) {
+                    //锁已过期或被其他节点获取，不再续期
+                    LOGGER.warn("lock lost before unlock, key:" + lease.key);
+                    LEASES.remove(lease);
+                } else {
+                    lease.renewAt = now + lease.leaseMs / 3;
+                }
+            } catch (Exception e) {
+                //下次检查时重试，连续失败超过租期后锁会过期
+                LOGGER.error("lock renew error, key:" + lease.key, e);
+            }
+        }
     }
-    private static Boolean unlockByKey(String key, RedisTemplate redisTemplate) throws RedisInvalidException {
-        key = getLockKey(key);
-        return delete(redisTemplate, key);
+
+    /**
+     * 只删除自己持有的锁，锁已过期并被其他节点获取时不删除
+     */
+    private static Boolean unlockByKey(LockLease lease, RedisTemplate redisTemplate) throws RedisInvalidException {
+        LEASES.remove(lease);
+        try {
+            Long deleted = (Long) redisTemplate.execute((RedisCallback<Long>) connection ->
+                    evalScript(connection, LUA_UNLOCK, ReturnType.INTEGER, 1, lease.rawKey, lease.token));
+            return deleted != null && deleted > 0;
+        }catch (Exception e){
+            throw new RedisInvalidException("redis unlock 异常",e);
+        }
     }
     private static  String getLockKey(String key){
         return "@$%#lockByKeySec##"+key;
     }
-    private static Boolean transLock(String key,  Long expireTime,TimeUnit timeUnit, RedisTemplate redisTemplate) throws RedisInvalidException {
+
+    /**
+     * 先按sha执行，redis未缓存脚本（NOSCRIPT）时发送脚本内容，之后redis会缓存该脚本
+     */
+    static <T> T evalScript(RedisConnection connection, RedisScript<?> script, ReturnType returnType, int numKeys, byte[]... keysAndArgs) {
         try {
-            return setNx(redisTemplate, key, expireTime, timeUnit);
-        }catch (Exception e){
-            throw new RedisInvalidException("redis setIfAbsent 异常",e);
+            return connection.evalSha(script.getSha1(), returnType, numKeys, keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            return connection.eval(script.getScriptAsString().getBytes(StandardCharsets.UTF_8), returnType, numKeys, keysAndArgs);
         }
     }
-    private static void setRedis(String key, String value, long timeout, TimeUnit unit, RedisTemplate redisTemplate) throws RedisInvalidException {
-        set(redisTemplate, key, value, timeout, unit);
+
+    static boolean isNoScript(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
     }
-    private static String getFromRedis(String key, RedisTemplate redisTemplate) throws RedisInvalidException {
+    private static CacheValue getFromRedis(String key, RedisTemplate redisTemplate) throws RedisInvalidException {
+        return getFromRedis(key, key, redisTemplate);
+    }
+    /**
+     * @param key 业务key，用于统计
+     * @param redisKey 实际读取的key，开启热点副本时为其中一个副本
+     */
+    private static CacheValue getFromRedis(String key, String redisKey, RedisTemplate redisTemplate) throws RedisInvalidException {
         try {
-            return get(redisTemplate, key);
+            byte[] rawKey = redisTemplate.getKeySerializer().serialize(redisKey);
+            long begin = CacheMetrics.start();
+            byte[] raw = (byte[]) redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+            CacheMetrics.recordTime(key, CacheMetrics.Timer.REDIS, begin);
+            return parseValue(raw, redisTemplate);
         }catch (Exception e){
             throw new RedisInvalidException("redis get 异常",e);
         }
@@ -291,22 +1086,17 @@ public class RedisUtil {
     public static boolean setNx(RedisTemplate redisTemplate, String key, Long expireTime, TimeUnit timeUnit) throws RedisInvalidException {
         return setNx(redisTemplate,key,expireTime,timeUnit,System.currentTimeMillis());
     }
+    /**
+     * 只使用RedisConnection的接口，jedis和lettuce、单机和集群均可使用
+     * value按json写入，失效时间精确到毫秒
+     */
     public static boolean setNx(RedisTemplate redisTemplate, String key, Long expireTime, TimeUnit timeUnit, Object value) throws RedisInvalidException {
         try {
-            Object ob=  redisTemplate.execute((RedisCallback<Boolean>) connection -> {
-                Object nativeConnection = connection.getNativeConnection();
-                String res = null;
-                // 集群模式（JedisCluster） 单机模式（Jedis）均可使用
-
-                // 单机模式
-                if (nativeConnection instanceof JedisCommands) {
-                    res = ((JedisCommands) nativeConnection).set(key, JSON.toJSONString(value),"NX","EX",timeUnit.toSeconds(expireTime));
-                }else{
-                    throw new RuntimeException("invalid redis");
-                }
-                return Objects.equals("OK", res);
-            });
-            return (Boolean) ob;
+            byte[] rawKey = redisTemplate.getKeySerializer().serialize(key);
+            byte[] rawValue = JSON.toJSONString(value).getBytes(StandardCharsets.UTF_8);
+            Object ob=  redisTemplate.execute((RedisCallback<Boolean>) connection ->
+                    connection.set(rawKey, rawValue, Expiration.from(expireTime, timeUnit), RedisStringCommands.SetOption.ifAbsent()));
+            return Boolean.TRUE.equals(ob);
         }catch (Exception e){
             throw new RedisInvalidException("redis setIfAbsent 异常",e);
         }
@@ -322,6 +1112,89 @@ public class RedisUtil {
         }
 
     }
+    /**
+     * 按codec写入，value为空时写入EMPTY_STRING，未配置codec时写入json字符串
+     * 写入后同时失效各节点的一级缓存，与delete一致
+     */
+    public static void set(RedisTemplate redisTemplate, String key, Object value, long timeout, TimeUnit unit, CacheConfig cacheConfig) throws RedisInvalidException {
+        CacheValue cacheValue = isEmptyValue(value) ? null : encodeValue(value, cacheConfig, 0, 0);
+        writeCache(key, toRaw(cacheValue, cacheConfig, redisTemplate), unit.toMillis(timeout), redisTemplate, cacheConfig);
+        NearCache.invalidate(redisTemplate, namespacedKey(key, redisTemplate, cacheConfig));
+    }
+
+    /**
+     * 热点key的访问计入hotKeyDetector，每次请求只计一次
+     */
+    private static void recordHotKey(String key, CacheConfig cacheConfig) {
+        HotKeyDetector detector = cacheConfig.getHotKeyDetector();
+        if (detector != null) {
+            detector.record(key);
+        }
+    }
+
+    /**
+     * 开启热点副本时随机读取一个副本，配置了hotKeyDetector时只有判定为热点的key读取副本
+     * key为业务key，只在访问redis时加上命名空间，布隆过滤器、统计和热点判断使用业务key
+     */
+    private static CacheValue readCache(String key, RedisTemplate redisTemplate, CacheConfig cacheConfig) throws RedisInvalidException {
+        String redisKey = namespacedKey(key, redisTemplate, cacheConfig);
+        int replicas = cacheConfig.getHotKeyReplicas();
+        HotKeyDetector detector = cacheConfig.getHotKeyDetector();
+        if (replicas <= 1 || (detector != null && !detector.isHot(key))) {
+            return getFromRedis(key, redisKey, redisTemplate);
+        }
+        return getFromRedis(key, replicaKey(redisKey, ThreadLocalRandom.current().nextInt(replicas)), redisTemplate);
+    }
+
+    /**
+     * 开启热点副本时写入全部副本（不论是否为热点），key切换为热点后读取副本不会读到旧值
+     * key为业务key，写入时加上命名空间
+     */
+    private static void writeCache(String key, byte[] raw, long timeoutMs, RedisTemplate redisTemplate, CacheConfig cacheConfig) throws RedisInvalidException {
+        String redisKey = namespacedKey(key, redisTemplate, cacheConfig);
+        int replicas = cacheConfig.getHotKeyReplicas();
+        if (replicas <= 1) {
+            setRaw(redisTemplate, key, redisKey, raw, timeoutMs, TimeUnit.MILLISECONDS);
+            return;
+        }
+        long begin = CacheMetrics.start();
+        pipelineSet(redisTemplate, replicaKeys(redisKey, replicas), Collections.nCopies(replicas, raw), Collections.nCopies(replicas, timeoutMs));
+        CacheMetrics.recordTime(key, CacheMetrics.Timer.REDIS, begin);
+    }
+
+    /**
+     * 第0个副本为key本身，关闭热点副本后仍可直接读取
+     */
+    private static String replicaKey(String key, int index) {
+        return index == 0 ? key : HOT_REPLICA_PREFIX + "{" + index + ":" + key + "}";
+    }
+
+    private static List<String> replicaKeys(String key, int replicas) {
+        List<String> keys = new ArrayList<>(replicas);
+        for (int i = 0; i < replicas; i++) {
+            keys.add(replicaKey(key, i));
+        }
+        return keys;
+    }
+
+    private static void setRaw(RedisTemplate redisTemplate, String key, byte[] value, long timeout, TimeUnit unit) throws RedisInvalidException {
+        setRaw(redisTemplate, key, key, value, timeout, unit);
+    }
+    /**
+     * @param key 业务key，用于统计
+     * @param redisKey 实际写入的key
+     */
+    private static void setRaw(RedisTemplate redisTemplate, String key, String redisKey, byte[] value, long timeout, TimeUnit unit) throws RedisInvalidException {
+        try {
+            byte[] rawKey = redisTemplate.getKeySerializer().serialize(redisKey);
+            long begin = CacheMetrics.start();
+            redisTemplate.execute((RedisCallback<Object>) connection ->
+                    connection.set(rawKey, value, Expiration.from(timeout, unit), RedisStringCommands.SetOption.upsert()));
+            CacheMetrics.recordTime(key, CacheMetrics.Timer.REDIS, begin);
+        }catch (Exception e){
+            throw new RedisInvalidException("redis set 异常",e);
+        }
+    }
     public static String get(RedisTemplate redisTemplate, String key) throws RedisInvalidException {
         try {
             Object o= redisTemplate.opsForValue().get(key);
@@ -356,47 +1229,274 @@ public class RedisUtil {
 
 
     public static <T>List getListCache(RedisTemplate redisTemplate, String key, Type type) throws RedisInvalidException {
-        Object value = get(redisTemplate, key);
-        if (value == null || EMPTY_STRING.equals(value) ) {
+        CacheValue value = getFromRedis(key, redisTemplate);
+        if (value == null || value.isEmpty()) {
             return Collections.EMPTY_LIST;
         }
-        return JSON.parseObject(value.toString(), new TypeReference<List<T>>(type) {});
+        return value.decode(new TypeReference<List<T>>(type) {}.getType());
     }
     public static <T>T getObjectCache(RedisTemplate redisTemplate, String key, Type type) throws RedisInvalidException {
-        Object value = get(redisTemplate, key);
-        if (value == null || EMPTY_STRING.equals(value) ) {
+        CacheValue value = getFromRedis(key, redisTemplate);
+        if (value == null || value.isEmpty()) {
             return null;
         }
-        return JSON.parseObject(value.toString(), type);
+        return value.decode(type);
     }
+    /**
+     * 删除后同时失效各节点的一级缓存，见 NearCache
+     */
     public static Boolean delete(RedisTemplate redisTemplate, String key){
-        return redisTemplate.delete(key);
+        Boolean res = redisTemplate.delete(key);
+        NearCache.invalidate(redisTemplate, key);
+        return res;
+    }
+    /**
+     * 开启热点副本时删除全部副本
+     */
+    public static Boolean delete(RedisTemplate redisTemplate, String key, CacheConfig cacheConfig){
+        return deleteCache(namespacedKey(key, redisTemplate, cacheConfig), redisTemplate, cacheConfig);
+    }
+    private static Boolean deleteCache(String key, RedisTemplate redisTemplate, CacheConfig cacheConfig){
+        if (cacheConfig.getHotKeyReplicas() <= 1) {
+            return delete(redisTemplate, key);
+        }
+        Long res;
+        if (isCluster(redisTemplate)) {
+            //副本在不同的slot，逐个删除
+            long n = 0;
+            for (String replica : replicaKeys(key, cacheConfig.getHotKeyReplicas())) {
+                n += Boolean.TRUE.equals(redisTemplate.delete(replica)) ? 1 : 0;
+            }
+            res = n;
+        } else {
+            res = redisTemplate.delete(replicaKeys(key, cacheConfig.getHotKeyReplicas()));
+        }
+        NearCache.invalidate(redisTemplate, key);
+        return res != null && res > 0;
     }
     public static Long increBy(RedisTemplate redisTemplate, String key){
         return  redisTemplate.opsForValue().increment(key, 1);
     }
+    /**
+     * 第一次增加时设置失效时间，通过EVALSHA执行，jedis和lettuce、单机和集群均可使用
+     */
     public static Long increBy(RedisTemplate redisTemplate, String key, Long time, TimeUnit timeUnit){
         try {
-            Object ob =  redisTemplate.execute((RedisCallback<Long>) connection -> {
-                Object nativeConnection = connection.getNativeConnection();
-                Long times = null;
-                String sec = String.valueOf(timeUnit.toSeconds(time));
-                // 集群模式（JedisCluster） 单机模式（Jedis）均可使用
-                if (nativeConnection instanceof JedisCluster) {
-                    times = (Long) (((JedisCluster) nativeConnection).eval(LUA_INCR.toString(),Collections.singletonList(key),Collections.singletonList(sec)));
-                }else if(nativeConnection instanceof Jedis){
-                    times = (Long) ((Jedis) nativeConnection).eval(LUA_INCR.toString(),Collections.singletonList(key),Collections.singletonList(sec));
-                }else {
-                    throw new RuntimeException("not support method for :"+nativeConnection.getClass());
-                }
-                return times;
-
-            });
+            byte[] rawKey = redisTemplate.getKeySerializer().serialize(key);
+            byte[] sec = String.valueOf(timeUnit.toSeconds(time)).getBytes(StandardCharsets.UTF_8);
+            Object ob =  redisTemplate.execute((RedisCallback<Long>) connection ->
+                    evalScript(connection, LUA_INCR, ReturnType.INTEGER, 1, rawKey, sec));
             return (Long)ob;
         }catch (Exception e){
             throw new RedisInvalidException("redis setIfAbsent 异常",e);
         }
     }
+
+    /**
+     * getCache的异步版本，redis访问和加载在asyncExecutorName对应的线程池中执行
+     * 等待其他节点加载时通过定时重试，不占用线程
+     */
+    public static <T>CompletableFuture<T> getCacheAsync(String key, Type type, Supplier<T> sp, RedisTemplate redisTemplate, CacheConfig cacheConfig) {
+        String redisKey = namespacedKey(key, redisTemplate, cacheConfig);
+        NearCache nearCache = cacheConfig.getNearCache();
+        if (nearCache != null) {
+            Object near = nearCache.get(redisKey, type, false);
+            if (near != NearCache.MISS && (near != null || !cacheConfig.getIfNotNull())) {
+                CacheMetrics.record(key, CacheMetrics.Event.NEAR_HIT);
+                return CompletableFuture.completedFuture((T) near);
+            }
+        }
+        //读取redis之前取失效计数，期间被失效时不写入一级缓存
+        long generation = nearCache == null ? -1 : nearCache.generation(redisKey);
+        return lockCacheGetAsync(key, sp, redisTemplate, cacheConfig).thenApply(value -> {
+            T t = value == null ? null : value.decode(type);
+            putNearCache(redisKey, type, false, t, value, cacheConfig, generation);
+            return t;
+        });
+    }
+
+    public static <T>CompletableFuture<List<T>> getListCacheAsync(String key, Type type, Supplier<List<T>> sp, RedisTemplate redisTemplate, CacheConfig cacheConfig) {
+        String redisKey = namespacedKey(key, redisTemplate, cacheConfig);
+        NearCache nearCache = cacheConfig.getNearCache();
+        if (nearCache != null) {
+            Object near = nearCache.get(redisKey, type, true);
+            if (near != NearCache.MISS && (near != null || !cacheConfig.getIfNotNull())) {
+                CacheMetrics.record(key, CacheMetrics.Event.NEAR_HIT);
+                return CompletableFuture.completedFuture(near == null ? Collections.EMPTY_LIST : (List<T>) near);
+            }
+        }
+        //读取redis之前取失效计数，期间被失效时不写入一级缓存
+        long generation = nearCache == null ? -1 : nearCache.generation(redisKey);
+        return lockCacheGetAsync(key, sp, redisTemplate, cacheConfig).thenApply(value -> {
+            List<T> t = value == null ? null : value.decode(new TypeReference<List<T>>(type) {}.getType());
+            putNearCache(redisKey, type, true, t, value, cacheConfig, generation);
+            return t == null ? Collections.EMPTY_LIST : t;
+        });
+    }
+
+    public static CompletableFuture<Boolean> setNxAsync(RedisTemplate redisTemplate, String key, Long expireTime, TimeUnit timeUnit) {
+        return setNxAsync(redisTemplate, key, expireTime, timeUnit, ASYNC_EXECUTOR_NAME);
+    }
+
+    public static CompletableFuture<Boolean> setNxAsync(RedisTemplate redisTemplate, String key, Long expireTime, TimeUnit timeUnit, String executorName) {
+        return CompletableFuture.supplyAsync(() -> setNx(redisTemplate, key, expireTime, timeUnit), asyncExecutor(executorName));
+    }
+
+    public static CompletableFuture<Long> increByAsync(RedisTemplate redisTemplate, String key, Long time, TimeUnit timeUnit) {
+        return increByAsync(redisTemplate, key, time, timeUnit, ASYNC_EXECUTOR_NAME);
+    }
+
+    public static CompletableFuture<Long> increByAsync(RedisTemplate redisTemplate, String key, Long time, TimeUnit timeUnit, String executorName) {
+        return CompletableFuture.supplyAsync(() -> increBy(redisTemplate, key, time, timeUnit), asyncExecutor(executorName));
+    }
+
+    private static Executor asyncExecutor(String executorName) {
+        return command -> ThreadPoolUtil.execute(executorName, command);
+    }
+
+    private static <T>CompletableFuture<CacheValue> lockCacheGetAsync(String key, Supplier<T> sp, RedisTemplate redisTemplate, CacheConfig cacheConfig) {
+        Executor executor = asyncExecutor(cacheConfig.getAsyncExecutorName());
+        long beginWait = System.currentTimeMillis();
+        CompletableFuture<CacheValue> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!mightExist(key, redisTemplate, cacheConfig)) {
+                        CacheMetrics.record(key, CacheMetrics.Event.BLOOM_REJECT);
+                        result.complete(null);
+                        return;
+                    }
+                    recordHotKey(key, cacheConfig);
+                    CacheValue value = readCache(key, redisTemplate, cacheConfig);
+                    if (value != null) {
+                        CacheMetrics.record(key, value.isEmpty() ? CacheMetrics.Event.NULL_HIT : CacheMetrics.Event.HIT);
+                        result.complete(dealValue(value, sp, key, cacheConfig, redisTemplate));
+                        return;
+                    }
+                    CacheMetrics.record(key, CacheMetrics.Event.MISS);
+                    String flightKey = cacheConfig.getIfNotNull() ? key + NOT_NULL_FLIGHT_SUFFIX : key;
+                    CompletableFuture<CacheValue> flight = new CompletableFuture<>();
+                    CompletableFuture<CacheValue> existing = IN_FLIGHT.putIfAbsent(flightKey, flight);
+                    if (existing != null) {
+                        CacheMetrics.record(key, CacheMetrics.Event.COALESCED);
+                        waitInFlightAsync(existing, beginWait, cacheConfig, result);
+                        return;
+                    }
+                    CompletableFuture<CacheValue> load = new CompletableFuture<>();
+                    load.whenComplete((loaded, e) -> {
+                        IN_FLIGHT.remove(flightKey, flight);
+                        if (e != null) {
+                            flight.completeExceptionally(e);
+                            result.completeExceptionally(e);
+                        } else {
+                            flight.complete(loaded == null ? null : loaded.shared());
+                            result.complete(loaded);
+                        }
+                    });
+                    lockCacheLoadAsync(key, sp, redisTemplate, cacheConfig, beginWait, false, executor, load);
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private static void waitInFlightAsync(CompletableFuture<CacheValue> flight, long beginWait, CacheConfig cacheConfig, CompletableFuture<CacheValue> result) {
+        if (cacheConfig.getMaxWaitTimeMs() <= 0 && !flight.isDone()) {
+            result.completeExceptionally(new LockedFailedException("获取锁失败"));
+            return;
+        }
+        flight.whenComplete((value, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(value);
+            }
+        });
+        if (cacheConfig.getMaxWaitTimeMs() > 0 && !result.isDone()) {
+            long remain = cacheConfig.getMaxWaitTimeMs() - (System.currentTimeMillis() - beginWait);
+            ScheduledFuture<?> timer = ASYNC_SCHEDULER.schedule(() -> result.completeExceptionally(new TimeoutException("等待超时！")),
+                    Math.max(remain, 0), TimeUnit.MILLISECONDS);
+            result.whenComplete((value, e) -> timer.cancel(false));
+        }
+    }
+
+    /**
+     * lockCacheLoad的异步版本，每次尝试在executor中执行，尝试之间由ASYNC_SCHEDULER定时唤醒
+     */
+    private static <T>void lockCacheLoadAsync(String key, Supplier<T> sp, RedisTemplate redisTemplate, CacheConfig cacheConfig, long beginWait,
+                                              boolean waited, Executor executor, CompletableFuture<CacheValue> load) {
+        try {
+            if(cacheConfig.getMaxWaitTimeMs() >0 && (System.currentTimeMillis()-beginWait)> cacheConfig.getMaxWaitTimeMs()){
+                CacheMetrics.record(key, CacheMetrics.Event.TIMEOUT);
+                load.completeExceptionally(new TimeoutException("等待超时！"));
+                return;
+            }
+            LockLease lease = lockByKey(key, cacheConfig.getLockTimeMs(), redisTemplate);
+            if (lease != null) {
+                try {
+                    CacheValue value = readCache(key, redisTemplate, cacheConfig);
+                    if (value != null) {
+                        load.complete(dealValue(value, sp, key, cacheConfig, redisTemplate));
+                        return;
+                    }
+                    value = doQueryCache(sp, key, cacheConfig, redisTemplate);
+                    if (cacheConfig.isLoadNotify()) {
+                        CacheLoadNotifier.publish(redisTemplate, key);
+                    }
+                    load.complete(value);
+                    return;
+                } finally {
+                    unlockByKey(lease, redisTemplate);
+                }
+            } else if (cacheConfig.getMaxWaitTimeMs() <= 0) {
+                CacheMetrics.record(key, CacheMetrics.Event.LOCK_FAILED);
+                load.completeExceptionally(new LockedFailedException("获取锁失败"));
+                return;
+            }
+            CacheMetrics.record(key, waited ? CacheMetrics.Event.WAIT_LOOP : CacheMetrics.Event.LOCK_WAIT);
+            //先注册再读取，读取之后发布的通知不会丢失
+            CompletableFuture<Void> signal = cacheConfig.isLoadNotify() && CacheLoadNotifier.isListening() ? CacheLoadNotifier.register(key) : null;
+            //进入等待后由唤醒回调注销，其余情况（命中或异常）在这里注销
+            boolean waiting = false;
+            try {
+                CacheValue value = readCache(key, redisTemplate, cacheConfig);
+                if (value != null) {
+                    load.complete(dealValue(value, sp, key, cacheConfig, redisTemplate));
+                    return;
+                }
+                long delay = cacheConfig.getWaitSleepTimeMs();
+                if (signal != null) {
+                    long remain = cacheConfig.getMaxWaitTimeMs() - (System.currentTimeMillis() - beginWait);
+                    delay = Math.max(1, Math.min(remain, cacheConfig.getLoadNotifyFallbackMs()));
+                }
+                CompletableFuture<Void> wake = signal != null ? signal : new CompletableFuture<>();
+                ScheduledFuture<?> timer = ASYNC_SCHEDULER.schedule(() -> wake.complete(null), delay, TimeUnit.MILLISECONDS);
+                waiting = true;
+                wake.thenRun(() -> {
+                    timer.cancel(false);
+                    if (signal != null) {
+                        CacheLoadNotifier.unregister(key, signal);
+                    }
+                    try {
+                        executor.execute(() -> lockCacheLoadAsync(key, sp, redisTemplate, cacheConfig, beginWait, true, executor, load));
+                    } catch (RejectedExecutionException e) {
+                        load.completeExceptionally(e);
+                    }
+                });
+            } finally {
+                if (signal != null && !waiting) {
+                    CacheLoadNotifier.unregister(key, signal);
+                }
+            }
+        } catch (Throwable e) {
+            load.completeExceptionally(e);
+        }
+    }
+
     public static boolean  expire(RedisTemplate redisTemplate, String key, Long time, TimeUnit timeUnit){
         return redisTemplate.expire(key, time, timeUnit);
     }
@@ -428,6 +1528,159 @@ public class RedisUtil {
             super(message, cause);
         }
     }
+    /**
+     * 持有中的加载锁
+     */
+    private static class LockLease {
+        private final String key;
+        private final byte[] rawKey;
+        private final byte[] token;
+        private final long leaseMs;
+        private final RedisTemplate redisTemplate;
+        private volatile long renewAt;
+
+        private LockLease(String key, byte[] rawKey, byte[] token, long leaseMs, RedisTemplate redisTemplate) {
+            this.key = key;
+            this.rawKey = rawKey;
+            this.token = token;
+            this.leaseMs = leaseMs;
+            this.redisTemplate = redisTemplate;
+            this.renewAt = System.currentTimeMillis() + leaseMs / 3;
+        }
+    }
+
+    /**
+     * redis中的一个缓存值
+     * payload为json字符串（未配置codec）或codec编码后的字节，为空表示缓存的是空值
+     */
+    private static class CacheValue {
+        private final Object payload;
+        private final int offset;
+        private final int length;
+        private final CacheCodec codec;
+        //本线程加载得到的对象，直接返回，避免再次反序列化
+        private final Object loaded;
+        //逻辑失效时间，0为未开启
+        private final long logicalExpireAt;
+        private final long loadTimeMs;
+
+        private CacheValue(String json, Object loaded, long logicalExpireAt, long loadTimeMs) {
+            this.payload = json;
+            this.offset = 0;
+            this.length = json == null ? 0 : json.length();
+            this.codec = null;
+            this.loaded = loaded;
+            this.logicalExpireAt = logicalExpireAt;
+            this.loadTimeMs = loadTimeMs;
+        }
+
+        private CacheValue(byte[] bytes, int offset, int length, CacheCodec codec, Object loaded, long logicalExpireAt, long loadTimeMs) {
+            this.payload = bytes;
+            this.offset = offset;
+            this.length = length;
+            this.codec = codec;
+            this.loaded = loaded;
+            this.logicalExpireAt = logicalExpireAt;
+            this.loadTimeMs = loadTimeMs;
+        }
+
+        private boolean isEmpty() {
+            return payload == null;
+        }
+
+        private int weight() {
+            return length;
+        }
+
+        private <T> T decode(Type type) {
+            if (loaded != null) {
+                return (T) loaded;
+            }
+            if (codec == null) {
+                return JSON.parseObject((String) payload, type);
+            }
+            return codec.decode((byte[]) payload, offset, length, type);
+        }
+
+        private CacheValue shared() {
+            if (loaded == null) {
+                return this;
+            }
+            if (codec == null) {
+                return new CacheValue((String) payload, null, logicalExpireAt, loadTimeMs);
+            }
+            return new CacheValue((byte[]) payload, offset, length, codec, null, logicalExpireAt, loadTimeMs);
+        }
+    }
+
+    /**
+     * 分页列表缓存的清单 格式为 id,元素数,每页元素数
+     */
+    private static class ListManifest {
+        private final String id;
+        private final int size;
+        private final int chunkSize;
+
+        private ListManifest(String id, int size, int chunkSize) {
+            this.id = id;
+            this.size = size;
+            this.chunkSize = chunkSize;
+        }
+
+        private static ListManifest parse(String value) {
+            String[] parts = value.split(",");
+            return new ListManifest(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        }
+
+        @Override
+        public String toString() {
+            return id + "," + size + "," + chunkSize;
+        }
+    }
+
+    private static class ListPageIterator<T> implements Iterator<T> {
+        private final String key;
+        private final String redisKey;
+        private final ListManifest manifest;
+        private final Type listType;
+        private final RedisTemplate redisTemplate;
+        private List<T> page = Collections.emptyList();
+        private int pageIndex = -1;
+        private int position;
+
+        private ListPageIterator(String key, String redisKey, ListManifest manifest, Type listType, RedisTemplate redisTemplate) {
+            this.key = key;
+            this.redisKey = redisKey;
+            this.manifest = manifest;
+            this.listType = listType;
+            this.redisTemplate = redisTemplate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < manifest.size;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int offset = position - (pageIndex * manifest.chunkSize);
+            if (pageIndex < 0 || offset >= page.size()) {
+                pageIndex = position / manifest.chunkSize;
+                List<CacheValue> pages = getListPages(key, redisKey, manifest, pageIndex, pageIndex, redisTemplate);
+                if (pages == null) {
+                    throw new RedisInvalidException("redis 分页缓存已失效");
+                }
+                page = pages.get(0).decode(listType);
+                offset = position - (pageIndex * manifest.chunkSize);
+            }
+            position++;
+            return page.get(offset);
+        }
+    }
+
     public static class CacheConfig{
         //key 失效时间
 
@@ -438,10 +1691,43 @@ public class RedisUtil {
         private long maxWaitTimeMs;
         //等待时内线程休眠时间 默认50ms
         private long waitSleepTimeMs = 50;
-        //分布式锁等待时长 默认为600s
-        private long lockTimeMs = 600*1000;
+        //分布式锁租期 加载期间由看门狗自动续期，无需按加载耗时放大 默认为10s
+        private long lockTimeMs = 10*1000;
         //是否允许缓存为空，不允许则执行后续操作 默认允许为空
         private boolean ifNotNull = Boolean.FALSE;
+        //进程内一级缓存 默认不开启
+        //set(cfg)、delete和后台刷新会失效各节点的一级缓存，其他方式直接写redis后需要调用NearCache.invalidate
+        private NearCache nearCache;
+        //一级缓存时间 不超过expireTimeMs 小于等于0时等同expireTimeMs
+        private long nearCacheTtlMs;
+        //过期后仍可返回旧值的时长，大于0时开启后台刷新模式，redis实际失效时间为expireTimeMs+staleTimeMs 默认不开启
+        private long staleTimeMs;
+        //提前刷新系数（XFetch），小于等于0时只在逻辑失效后刷新，一般取1
+        private double earlyRefreshBeta;
+        //后台刷新使用的线程池名称，见ThreadPoolUtil
+        private String refreshExecutorName = "REDIS_CACHE_REFRESH";
+        //编解码方式 默认为空，使用原有的json字符串格式，见CacheCodecs
+        //POSITIONAL_CODEC不含字段名，字段顺序是数据格式的一部分，修改字段后需要同时更换key（如CacheNamespace.invalidate），否则会静默读错
+        private CacheCodec codec;
+        //使用codec时超过该长度（字节）压缩，小于等于0不压缩
+        private int compressThresholdBytes;
+        //布隆过滤器，判断一定不存在的key直接返回空 默认不开启
+        private RedisBloomFilter bloomFilter;
+        //加载完成后发布通知，等待方收到通知立即读取 需要调用CacheLoadNotifier.listen 默认不开启
+        private boolean loadNotify;
+        //开启通知时，等待方未收到通知的轮询间隔 默认500ms
+        private long loadNotifyFallbackMs = 500;
+        //异步接口使用的线程池名称，见ThreadPoolUtil
+        private String asyncExecutorName = ASYNC_EXECUTOR_NAME;
+        //热点副本数，大于1时每个key写入多份到不同的slot，读取时随机选择一份，删除需调用delete(redisTemplate, key, cacheConfig) 默认不开启
+        private int hotKeyReplicas;
+        //热点探测，配置后只有判定为热点的key读取副本，写入仍为全部副本 默认为空，全部key读取副本
+        private HotKeyDetector hotKeyDetector;
+        //命名空间，redis key加上命名空间和版本，可通过CacheNamespace.invalidate整组失效 默认为空
+        //只有访问redis和一级缓存时加上命名空间，布隆过滤器、统计、热点探测和加载锁使用原key
+        private CacheNamespace namespace;
+        //分页列表缓存每页的元素数，见 getListCacheRange 默认500
+        private int listChunkSize = 500;
 
         public long getExpireTimeMs() {
             return expireTimeMs;
@@ -490,6 +1776,126 @@ public class RedisUtil {
         public void setIfNotNull(Boolean ifNotNull) {
             this.ifNotNull = ifNotNull;
         }
+
+        public NearCache getNearCache() {
+            return nearCache;
+        }
+
+        public void setNearCache(NearCache nearCache) {
+            this.nearCache = nearCache;
+        }
+
+        public long getNearCacheTtlMs() {
+            return nearCacheTtlMs;
+        }
+
+        public void setNearCacheTtlMs(long nearCacheTtlMs) {
+            this.nearCacheTtlMs = nearCacheTtlMs;
+        }
+
+        public long getStaleTimeMs() {
+            return staleTimeMs;
+        }
+
+        public void setStaleTimeMs(long staleTimeMs) {
+            this.staleTimeMs = staleTimeMs;
+        }
+
+        public double getEarlyRefreshBeta() {
+            return earlyRefreshBeta;
+        }
+
+        public void setEarlyRefreshBeta(double earlyRefreshBeta) {
+            this.earlyRefreshBeta = earlyRefreshBeta;
+        }
+
+        public String getRefreshExecutorName() {
+            return refreshExecutorName;
+        }
+
+        public void setRefreshExecutorName(String refreshExecutorName) {
+            this.refreshExecutorName = refreshExecutorName;
+        }
+
+        public CacheCodec getCodec() {
+            return codec;
+        }
+
+        public void setCodec(CacheCodec codec) {
+            this.codec = codec;
+        }
+
+        public int getCompressThresholdBytes() {
+            return compressThresholdBytes;
+        }
+
+        public void setCompressThresholdBytes(int compressThresholdBytes) {
+            this.compressThresholdBytes = compressThresholdBytes;
+        }
+
+        public RedisBloomFilter getBloomFilter() {
+            return bloomFilter;
+        }
+
+        public void setBloomFilter(RedisBloomFilter bloomFilter) {
+            this.bloomFilter = bloomFilter;
+        }
+
+        public boolean isLoadNotify() {
+            return loadNotify;
+        }
+
+        public void setLoadNotify(boolean loadNotify) {
+            this.loadNotify = loadNotify;
+        }
+
+        public long getLoadNotifyFallbackMs() {
+            return loadNotifyFallbackMs;
+        }
+
+        public void setLoadNotifyFallbackMs(long loadNotifyFallbackMs) {
+            this.loadNotifyFallbackMs = loadNotifyFallbackMs;
+        }
+
+        public String getAsyncExecutorName() {
+            return asyncExecutorName;
+        }
+
+        public void setAsyncExecutorName(String asyncExecutorName) {
+            this.asyncExecutorName = asyncExecutorName;
+        }
+
+        public int getHotKeyReplicas() {
+            return hotKeyReplicas;
+        }
+
+        public void setHotKeyReplicas(int hotKeyReplicas) {
+            this.hotKeyReplicas = hotKeyReplicas;
+        }
+
+        public HotKeyDetector getHotKeyDetector() {
+            return hotKeyDetector;
+        }
+
+        public void setHotKeyDetector(HotKeyDetector hotKeyDetector) {
+            this.hotKeyDetector = hotKeyDetector;
+        }
+
+        public CacheNamespace getNamespace() {
+            return namespace;
+        }
+
+        public void setNamespace(CacheNamespace namespace) {
+            this.namespace = namespace;
+        }
+
+        public int getListChunkSize() {
+            return listChunkSize;
+        }
+
+        public void setListChunkSize(int listChunkSize) {
+            this.listChunkSize = listChunkSize;
+        }
     }
 
 
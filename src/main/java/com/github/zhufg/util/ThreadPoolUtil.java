@@ -3,67 +3,186 @@ package com.github.zhufg.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
+import java.util.Queue;
+import java.util.RandomAccess;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.LongBinaryOperator;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 
 /**
  * @author zhufg
  *  线程池实现，请尽量不要使用thread.sleep
+ *  按名称注册线程池，第一次使用时按configure的配置创建，未配置的名称使用默认配置（fork-join，并行度为cpu数）
+ *  应用退出时调用shutdownAll，等待已提交的任务执行完毕
+ *  线程池的排队、执行耗时等统计见ExecutorMetrics
  */
 public class ThreadPoolUtil {
     private static final Logger logger = LoggerFactory.getLogger(ThreadPoolUtil.class);
+    //executeByCommon使用的线程池名称
+    public static final String COMMON_NAME = "COMMON";
     private static final Map<String, ExecutorService> executorMap = new ConcurrentHashMap<>();
+    private static final Map<String, ExecutorConfig> configMap = new ConcurrentHashMap<>();
     private static final int availableProcessors = Runtime.getRuntime().availableProcessors();
-    private static final ReentrantLock lock = new ReentrantLock();
+    private static volatile boolean closed;
+    //java 21以上的虚拟线程工厂方法，不支持时为空
+    private static final Method VIRTUAL_EXECUTOR_FACTORY = virtualExecutorFactory();
+    //并行计算时工作线程积压的任务超过该数量不再拆分
+    private static final int MAX_SURPLUS_QUEUED_TASKS = 3;
+    //当前线程的截止时间，提交任务时传递到执行线程
+    private static final ThreadLocal<Deadline> CURRENT_DEADLINE = new ThreadLocal<>();
 
     private static ExecutorService getExecutor(String name) {
-        String executorName = "EXECUTOR_"+name;
+        String executorName = name == null ? COMMON_NAME : name;
         ExecutorService executorOne = executorMap.get(executorName);
-        if (executorOne == null) {
-            lock.lock();
+        if (executorOne != null) {
+            return executorOne;
+        }
+        if (closed) {
+            throw new RejectedExecutionException("线程池已关闭：" + executorName);
+        }
+        return executorMap.computeIfAbsent(executorName, n -> {
+            ExecutorService executorService = newThreadPool(n);
+            ExecutorMetrics.register(n, executorService);
+            return executorService;
+        });
+    }
+
+    /**
+     * 配置线程池，需要在第一次使用该名称之前调用
+     */
+    public static void configure(String name, ExecutorConfig config) {
+        String executorName = name == null ? COMMON_NAME : name;
+        configMap.put(executorName, config);
+        if (executorMap.containsKey(executorName)) {
+            configMap.remove(executorName, config);
+            throw new IllegalStateException("线程池已创建，无法修改配置：" + executorName);
+        }
+    }
+
+    /**
+     * 关闭单个线程池，已提交的任务继续执行，再次使用该名称时重新创建
+     */
+    public static void shutdown(String name) {
+        String executorName = name == null ? COMMON_NAME : name;
+        ExecutorService executorService = executorMap.remove(executorName);
+        if (executorService != null) {
+            executorService.shutdown();
+            ExecutorMetrics.unregister(executorName, executorService);
+        }
+    }
+
+    /**
+     * 关闭全部线程池，之后不再接受任务
+     * 等待已提交的任务执行完毕，超过timeout后中断仍在执行的任务
+     * @return 超时前全部执行完毕返回true
+     */
+    public static boolean shutdownAll(long timeout, TimeUnit unit) {
+        closed = true;
+        List<ExecutorService> executors = new ArrayList<>(executorMap.values());
+        executorMap.clear();
+        for (ExecutorService executorService : executors) {
+            executorService.shutdown();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean terminated = true;
+        for (ExecutorService executorService : executors) {
             try {
-                executorOne = executorMap.get(executorName);
-                if (executorOne == null) {
-                    executorOne = newThreadPool();
-                    executorMap.put(name, executorOne);
+                if (!executorService.awaitTermination(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                    terminated = false;
                 }
-            }finally {
-                lock.unlock();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                terminated = false;
+                break;
             }
         }
-        return executorOne;
+        if (!terminated) {
+            for (ExecutorService executorService : executors) {
+                List<Runnable> dropped = executorService.shutdownNow();
+                if (!dropped.isEmpty()) {
+                    logger.warn("线程池关闭超时，丢弃未执行的任务数：" + dropped.size());
+                }
+            }
+        }
+        return terminated;
     }
 
+    /**
+     * 不传递当前线程的截止时间，没有调用方等待结果，任务总是执行，避免跳过任务中释放资源、完成回调的逻辑
+     * 需要截止时间时使用submit或Deadline.run
+     */
     public static void execute(String name, Runnable command) {
-        ExecutorService executorService = getExecutor(name);
-        executorService.execute(command);
+        String executorName = name == null ? COMMON_NAME : name;
+        ExecutorService executorService = getExecutor(executorName);
+        try {
+            executorService.execute(ExecutorMetrics.wrap(executorName, command));
+        } catch (RejectedExecutionException e) {
+            recordRejected(executorName, executorService);
+            throw e;
+        }
     }
+    /**
+     * 当前线程有截止时间时传递到执行线程，到期后未开始的任务不再执行，Future抛出TimeoutException
+     */
     public static <T> Future<T> submit(String name, Callable<T> command) {
-        ExecutorService executorService = getExecutor(name);
-        return executorService.submit(command);
+        return submit(name, command, CURRENT_DEADLINE.get());
+    }
+
+    private static <T> Future<T> submit(String name, Callable<T> command, Deadline deadline) {
+        String executorName = name == null ? COMMON_NAME : name;
+        ExecutorService executorService = getExecutor(executorName);
+        try {
+            return executorService.submit(ExecutorMetrics.wrap(executorName, deadline == null ? command : deadline.bind(command)));
+        } catch (RejectedExecutionException e) {
+            recordRejected(executorName, executorService);
+            throw e;
+        }
+    }
+
+    /**
+     * THREAD_POOL的拒绝已在RejectedExecutionHandler中统计
+     */
+    private static void recordRejected(String name, ExecutorService executorService) {
+        if (!(executorService instanceof ThreadPoolExecutor)) {
+            ExecutorMetrics.recordRejected(name);
+        }
     }
     public static void executeByCommon(Runnable command) {
         execute(null, command);
     }
 
     public static void execute(String name, Runnable command, int timeoutSec)throws TimeoutException  {
-        ExecutorService executorService = getExecutor(name);
-        Future<?> future = executorService.submit(command);
+        execute(name, command, timeoutSec, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 等待执行完毕，超时后中断任务并抛出TimeoutException
+     * 当前线程有截止时间时取两者中较早的
+     */
+    public static void execute(String name, Runnable command, long timeout, TimeUnit unit) throws TimeoutException {
+        TaskCollector<Object> collector = new TaskCollector<>(name, unit.toNanos(timeout), PoolExceptionPolicy.SHUTDOWN);
+        collector.add(Executors.callable(command));
         try {
-            future.get(timeoutSec, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            logger.error(name + "InterruptedException error", e);
-            throw new RuntimeException(e);
-        } catch (ExecutionException e) {
-            logger.error(name + " ExecutionException error", e);
-            throw new RuntimeException(e);
+            collector.await();
+        } catch (RuntimeException e) {
+            logger.error(name + " execute error", e.getCause());
+            throw e;
         }
     }
 
@@ -121,12 +240,600 @@ public class ThreadPoolUtil {
         return partitionList(list, getReasonableProcess());
     }
 
+    /**
+     * 并行map，结果与list顺序一致
+     * 按fork-join递归拆分，工作线程本地队列中积压的任务较多时停止拆分，任务块大小随负载自动调整，空闲线程窃取未执行的块
+     * 结果按下标直接写入数组，不创建subList和中间结果列表，返回的列表长度固定
+     */
+    public static <T, R> List<R> parallelMap(List<T> list, Function<? super T, ? extends R> fn) {
+        return parallelMap(list, fn, new ParallelOptions());
+    }
+
+    public static <T, R> List<R> parallelMap(List<T> list, Function<? super T, ? extends R> fn, ParallelOptions options) {
+        List<T> items = randomAccess(list);
+        Object[] results = new Object[items.size()];
+        invoke(new RangeTask(0, items.size(), (lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                results[i] = fn.apply(items.get(i));
+            }
+        }), items.size(), options);
+        return (List<R>) Arrays.asList(results);
+    }
+
+    public static <T> int[] parallelMapToInt(List<T> list, ToIntFunction<? super T> fn, ParallelOptions options) {
+        List<T> items = randomAccess(list);
+        int[] results = new int[items.size()];
+        invoke(new RangeTask(0, items.size(), (lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                results[i] = fn.applyAsInt(items.get(i));
+            }
+        }), items.size(), options);
+        return results;
+    }
+
+    public static <T> long[] parallelMapToLong(List<T> list, ToLongFunction<? super T> fn, ParallelOptions options) {
+        List<T> items = randomAccess(list);
+        long[] results = new long[items.size()];
+        invoke(new RangeTask(0, items.size(), (lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                results[i] = fn.applyAsLong(items.get(i));
+            }
+        }), items.size(), options);
+        return results;
+    }
+
+    /**
+     * 并行归约，按list顺序合并，combiner只需满足结合律
+     * @return list为空时返回空
+     */
+    public static <T, R> R parallelReduce(List<T> list, Function<? super T, ? extends R> mapper, BinaryOperator<R> combiner) {
+        return parallelReduce(list, mapper, combiner, new ParallelOptions());
+    }
+
+    public static <T, R> R parallelReduce(List<T> list, Function<? super T, ? extends R> mapper, BinaryOperator<R> combiner, ParallelOptions options) {
+        List<T> items = randomAccess(list);
+        ReduceTask<T, R> task = new ReduceTask<>(0, items.size(), items, mapper, combiner);
+        invoke(task, items.size(), options);
+        return task.result;
+    }
+
+    /**
+     * int归约，不装箱，identity需满足 combiner(identity, x) == x
+     */
+    public static <T> int parallelReduceToInt(List<T> list, ToIntFunction<? super T> mapper, int identity, IntBinaryOperator combiner, ParallelOptions options) {
+        List<T> items = randomAccess(list);
+        IntReduceTask<T> task = new IntReduceTask<>(0, items.size(), items, mapper, identity, combiner);
+        invoke(task, items.size(), options);
+        return task.result;
+    }
+
+    /**
+     * long归约，不装箱，identity需满足 combiner(identity, x) == x
+     */
+    public static <T> long parallelReduceToLong(List<T> list, ToLongFunction<? super T> mapper, long identity, LongBinaryOperator combiner, ParallelOptions options) {
+        List<T> items = randomAccess(list);
+        LongReduceTask<T> task = new LongReduceTask<>(0, items.size(), items, mapper, identity, combiner);
+        invoke(task, items.size(), options);
+        return task.result;
+    }
+
+    private static <T> List<T> randomAccess(List<T> list) {
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return list instanceof RandomAccess ? list : new ArrayList<>(list);
+    }
+
+    private static void invoke(SplitTask<?> task, int size, ParallelOptions options) {
+        if (size == 0) {
+            return;
+        }
+        if (size <= options.sequentialThreshold) {
+            task.leaf(0, size);
+            return;
+        }
+        ExecutorService executorService = getExecutor(options.executorName);
+        if (!(executorService instanceof ForkJoinPool)) {
+            throw new IllegalArgumentException("并行计算需要FORK_JOIN类型的线程池：" + options.executorName);
+        }
+        ForkJoinPool pool = (ForkJoinPool) executorService;
+        task.minChunkSize = options.minChunkSize > 0 ? options.minChunkSize : Math.max(1, size / (pool.getParallelism() * 4));
+        if (ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    /**
+     * 递归拆分的任务，[lo, hi)在当前线程中执行，右半部分fork出去
+     * 合并时按从左到右的顺序，归约结果与顺序执行一致
+     */
+    private abstract static class SplitTask<S extends SplitTask<S>> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        protected final int lo;
+        protected final int hi;
+        private int minChunkSize = 1;
+
+        SplitTask(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        abstract S split(int lo, int hi);
+
+        abstract void leaf(int lo, int hi);
+
+        void merge(S right) {
+        }
+
+        @Override
+        protected final void compute() {
+            int end = hi;
+            List<S> forked = null;
+            while (end - lo > minChunkSize && getSurplusQueuedTaskCount() <= MAX_SURPLUS_QUEUED_TASKS) {
+                int mid = (lo + end) >>> 1;
+                S right = split(mid, end);
+                ((SplitTask<S>) right).minChunkSize = minChunkSize;
+                right.fork();
+                if (forked == null) {
+                    forked = new ArrayList<>();
+                }
+                forked.add(right);
+                end = mid;
+            }
+            leaf(lo, end);
+            if (forked == null) {
+                return;
+            }
+            //最后fork的紧挨着当前范围，倒序合并即为从左到右
+            for (int i = forked.size() - 1; i >= 0; i--) {
+                S right = forked.get(i);
+                right.join();
+                merge(right);
+            }
+        }
+    }
+
+    private interface RangeAction {
+        void run(int lo, int hi);
+    }
+
+    private static class RangeTask extends SplitTask<RangeTask> {
+        private static final long serialVersionUID = 1L;
+        private final RangeAction action;
+
+        RangeTask(int lo, int hi, RangeAction action) {
+            super(lo, hi);
+            this.action = action;
+        }
+
+        @Override
+        RangeTask split(int lo, int hi) {
+            return new RangeTask(lo, hi, action);
+        }
+
+        @Override
+        void leaf(int lo, int hi) {
+            action.run(lo, hi);
+        }
+    }
+
+    private static class ReduceTask<T, R> extends SplitTask<ReduceTask<T, R>> {
+        private static final long serialVersionUID = 1L;
+        private final List<T> items;
+        private final Function<? super T, ? extends R> mapper;
+        private final BinaryOperator<R> combiner;
+        private R result;
+        private boolean hasResult;
+
+        ReduceTask(int lo, int hi, List<T> items, Function<? super T, ? extends R> mapper, BinaryOperator<R> combiner) {
+            super(lo, hi);
+            this.items = items;
+            this.mapper = mapper;
+            this.combiner = combiner;
+        }
+
+        @Override
+        ReduceTask<T, R> split(int lo, int hi) {
+            return new ReduceTask<>(lo, hi, items, mapper, combiner);
+        }
+
+        @Override
+        void leaf(int lo, int hi) {
+            for (int i = lo; i < hi; i++) {
+                R value = mapper.apply(items.get(i));
+                result = hasResult ? combiner.apply(result, value) : value;
+                hasResult = true;
+            }
+        }
+
+        @Override
+        void merge(ReduceTask<T, R> right) {
+            if (right.hasResult) {
+                result = hasResult ? combiner.apply(result, right.result) : right.result;
+                hasResult = true;
+            }
+        }
+    }
+
+    private static class IntReduceTask<T> extends SplitTask<IntReduceTask<T>> {
+        private static final long serialVersionUID = 1L;
+        private final List<T> items;
+        private final ToIntFunction<? super T> mapper;
+        private final IntBinaryOperator combiner;
+        private final int identity;
+        private int result;
+
+        IntReduceTask(int lo, int hi, List<T> items, ToIntFunction<? super T> mapper, int identity, IntBinaryOperator combiner) {
+            super(lo, hi);
+            this.items = items;
+            this.mapper = mapper;
+            this.identity = identity;
+            this.combiner = combiner;
+            this.result = identity;
+        }
+
+        @Override
+        IntReduceTask<T> split(int lo, int hi) {
+            return new IntReduceTask<>(lo, hi, items, mapper, identity, combiner);
+        }
+
+        @Override
+        void leaf(int lo, int hi) {
+            for (int i = lo; i < hi; i++) {
+                result = combiner.applyAsInt(result, mapper.applyAsInt(items.get(i)));
+            }
+        }
+
+        @Override
+        void merge(IntReduceTask<T> right) {
+            result = combiner.applyAsInt(result, right.result);
+        }
+    }
+
+    private static class LongReduceTask<T> extends SplitTask<LongReduceTask<T>> {
+        private static final long serialVersionUID = 1L;
+        private final List<T> items;
+        private final ToLongFunction<? super T> mapper;
+        private final LongBinaryOperator combiner;
+        private final long identity;
+        private long result;
+
+        LongReduceTask(int lo, int hi, List<T> items, ToLongFunction<? super T> mapper, long identity, LongBinaryOperator combiner) {
+            super(lo, hi);
+            this.items = items;
+            this.mapper = mapper;
+            this.identity = identity;
+            this.combiner = combiner;
+            this.result = identity;
+        }
+
+        @Override
+        LongReduceTask<T> split(int lo, int hi) {
+            return new LongReduceTask<>(lo, hi, items, mapper, identity, combiner);
+        }
+
+        @Override
+        void leaf(int lo, int hi) {
+            for (int i = lo; i < hi; i++) {
+                result = combiner.applyAsLong(result, mapper.applyAsLong(items.get(i)));
+            }
+        }
+
+        @Override
+        void merge(LongReduceTask<T> right) {
+            result = combiner.applyAsLong(result, right.result);
+        }
+    }
+
+    /**
+     * 并行计算的配置
+     */
+    public static class ParallelOptions {
+        //使用的线程池名称，需要为FORK_JOIN类型
+        private String executorName = "PARALLEL";
+        //元素数小于等于该值时在调用线程中顺序执行 默认0
+        private int sequentialThreshold;
+        //任务块的最小元素数，小于等于0时为 元素数/(并行度*4)
+        private int minChunkSize;
+
+        public String getExecutorName() {
+            return executorName;
+        }
+
+        public void setExecutorName(String executorName) {
+            this.executorName = executorName;
+        }
+
+        public int getSequentialThreshold() {
+            return sequentialThreshold;
+        }
+
+        public void setSequentialThreshold(int sequentialThreshold) {
+            this.sequentialThreshold = sequentialThreshold;
+        }
+
+        public int getMinChunkSize() {
+            return minChunkSize;
+        }
+
+        public void setMinChunkSize(int minChunkSize) {
+            this.minChunkSize = minChunkSize;
+        }
+    }
+
     public static int getReasonableProcess() {
         return availableProcessors;
     }
 
-    private static ExecutorService newThreadPool(){
-        return Executors.newWorkStealingPool(getReasonableProcess());
+    private static ExecutorService newThreadPool(String name){
+        ExecutorConfig config = configMap.getOrDefault(name, new ExecutorConfig());
+        int parallelism = config.parallelism > 0 ? config.parallelism : getReasonableProcess();
+        String prefix = config.threadNamePrefix != null ? config.threadNamePrefix : name;
+        AtomicInteger index = new AtomicInteger();
+        if (config.type == ExecutorType.VIRTUAL) {
+            ExecutorService executor = newVirtualThreadPool(prefix);
+            if (executor != null) {
+                return config.maxConcurrency > 0 ? new BoundedExecutor(name, executor, config.maxConcurrency) : executor;
+            }
+            logger.info("当前jvm不支持虚拟线程，使用THREAD_POOL：" + name);
+        }
+        if (config.type == ExecutorType.FORK_JOIN) {
+            return new ForkJoinPool(parallelism, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName(prefix + "-" + index.incrementAndGet());
+                return thread;
+            }, null, true);
+        }
+        BlockingQueue<Runnable> queue = config.queueCapacity > 0 ? new ArrayBlockingQueue<>(config.queueCapacity) : new SynchronousQueue<>();
+        int corePoolSize = parallelism;
+        int maxPoolSize = Math.max(config.maxPoolSize, parallelism);
+        boolean allowCoreThreadTimeOut = config.allowCoreThreadTimeOut;
+        if (config.type == ExecutorType.VIRTUAL) {
+            //线程只在队列满后才超过核心线程数，io任务需要核心线程数即为并发数，空闲时回收
+            corePoolSize = config.maxConcurrency > 0 ? config.maxConcurrency : maxPoolSize;
+            maxPoolSize = corePoolSize;
+            allowCoreThreadTimeOut = true;
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(corePoolSize, maxPoolSize,
+                config.keepAliveMs, TimeUnit.MILLISECONDS, queue, r -> {
+                    Thread thread = new Thread(r, prefix + "-" + index.incrementAndGet());
+                    thread.setDaemon(config.daemon);
+                    return thread;
+                }, ExecutorMetrics.countRejected(name, config.rejectPolicy.handler()));
+        executor.allowCoreThreadTimeOut(config.keepAliveMs > 0 && allowCoreThreadTimeOut);
+        return executor;
+    }
+
+    /**
+     * 每个任务一个虚拟线程，线程名为 前缀-序号
+     * @return 不支持虚拟线程时返回空
+     */
+    private static ExecutorService newVirtualThreadPool(String prefix) {
+        if (VIRTUAL_EXECUTOR_FACTORY == null) {
+            return null;
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) VIRTUAL_EXECUTOR_FACTORY.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            logger.error("创建虚拟线程池异常", e);
+            return null;
+        }
+    }
+
+    private static Method virtualExecutorFactory() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 限制同时执行的任务数，超过的任务在各自的线程中等待许可，不阻塞提交方
+     * 只用于虚拟线程，等待中的虚拟线程不占用平台线程
+     */
+    private static class BoundedExecutor extends AbstractExecutorService {
+        private final String name;
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        private BoundedExecutor(String name, ExecutorService delegate, int maxConcurrency) {
+            this.name = name;
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrency);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    //等待许可时被中断（如shutdownNow），任务不再执行，按拒绝统计
+                    Thread.currentThread().interrupt();
+                    ExecutorMetrics.recordRejected(name);
+                    if (command instanceof Future) {
+                        //submit提交的FutureTask，取消后等待方不会一直阻塞
+                        ((Future<?>) command).cancel(false);
+                        return;
+                    }
+                    throw new RejectedExecutionException("等待执行许可时被中断");
+                }
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    public enum ExecutorType {
+        //ForkJoinPool（asyncMode），任务队列无界
+        FORK_JOIN,
+        //ThreadPoolExecutor，队列有界，队列满时按rejectPolicy处理
+        THREAD_POOL,
+        //每个任务一个虚拟线程（java 21以上），适合阻塞io的任务，可用maxConcurrency限制并发
+        //不支持虚拟线程时按THREAD_POOL创建
+        VIRTUAL
+    }
+
+    public enum RejectPolicy {
+        ABORT,
+        CALLER_RUNS,
+        DISCARD,
+        DISCARD_OLDEST;
+
+        private RejectedExecutionHandler handler() {
+            switch (this) {
+                case CALLER_RUNS:
+                    return new ThreadPoolExecutor.CallerRunsPolicy();
+                case DISCARD:
+                    return new ThreadPoolExecutor.DiscardPolicy();
+                case DISCARD_OLDEST:
+                    return new ThreadPoolExecutor.DiscardOldestPolicy();
+                default:
+                    return new ThreadPoolExecutor.AbortPolicy();
+            }
+        }
+    }
+
+    /**
+     * 线程池配置，通过configure按名称注册
+     */
+    public static class ExecutorConfig {
+        //类型 默认fork-join
+        private ExecutorType type = ExecutorType.FORK_JOIN;
+        //并行度，THREAD_POOL时为核心线程数 小于等于0时为cpu数
+        private int parallelism;
+        //THREAD_POOL的最大线程数，小于并行度时等于并行度
+        private int maxPoolSize;
+        //THREAD_POOL的队列长度，小于等于0时不排队，没有空闲线程直接按rejectPolicy处理 默认1024
+        private int queueCapacity = 1024;
+        //THREAD_POOL队列满时的处理方式 默认抛出RejectedExecutionException
+        private RejectPolicy rejectPolicy = RejectPolicy.ABORT;
+        //THREAD_POOL超过核心线程数的线程空闲回收时间 默认60s
+        private long keepAliveMs = 60 * 1000;
+        //THREAD_POOL核心线程是否空闲回收 默认不回收
+        private boolean allowCoreThreadTimeOut;
+        //THREAD_POOL是否为守护线程，fork-join总是守护线程 默认是
+        private boolean daemon = true;
+        //线程名前缀 默认为线程池名称
+        private String threadNamePrefix;
+        //VIRTUAL同时执行的任务数上限，小于等于0不限制；退化为THREAD_POOL时作为线程数，小于等于0时线程数为max(maxPoolSize, parallelism)
+        private int maxConcurrency;
+
+        public ExecutorType getType() {
+            return type;
+        }
+
+        public void setType(ExecutorType type) {
+            this.type = type;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public int getMaxPoolSize() {
+            return maxPoolSize;
+        }
+
+        public void setMaxPoolSize(int maxPoolSize) {
+            this.maxPoolSize = maxPoolSize;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public RejectPolicy getRejectPolicy() {
+            return rejectPolicy;
+        }
+
+        public void setRejectPolicy(RejectPolicy rejectPolicy) {
+            this.rejectPolicy = rejectPolicy;
+        }
+
+        public long getKeepAliveMs() {
+            return keepAliveMs;
+        }
+
+        public void setKeepAliveMs(long keepAliveMs) {
+            this.keepAliveMs = keepAliveMs;
+        }
+
+        public boolean isAllowCoreThreadTimeOut() {
+            return allowCoreThreadTimeOut;
+        }
+
+        public void setAllowCoreThreadTimeOut(boolean allowCoreThreadTimeOut) {
+            this.allowCoreThreadTimeOut = allowCoreThreadTimeOut;
+        }
+
+        public boolean isDaemon() {
+            return daemon;
+        }
+
+        public void setDaemon(boolean daemon) {
+            this.daemon = daemon;
+        }
+
+        public String getThreadNamePrefix() {
+            return threadNamePrefix;
+        }
+
+        public void setThreadNamePrefix(String threadNamePrefix) {
+            this.threadNamePrefix = threadNamePrefix;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public void setMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
     }
     public enum PoolExceptionPolicy{
         IGNORE,
@@ -134,114 +841,732 @@ public class ThreadPoolUtil {
         RETURNRULSTNOW
     }
     public static CountDownLatchHerlper getResultHelper(String taskName, int timeoutSec, PoolExceptionPolicy poolExceptionPolicy){
-        return new CountDownLatchHerlper(taskName, timeoutSec, poolExceptionPolicy);
+        return getResultHelper(taskName, timeoutSec, TimeUnit.SECONDS, poolExceptionPolicy);
     }
     public static ResultVoidHerlper getVoidHelper(String taskName, int timeoutSec,PoolExceptionPolicy poolExceptionPolicy){
-        return new ResultVoidHerlper(taskName, timeoutSec, poolExceptionPolicy);
+        return getVoidHelper(taskName, timeoutSec, TimeUnit.SECONDS, poolExceptionPolicy);
     }
-    public static class CountDownLatchHerlper<T>{
-        private String taskName;
-        private int timeoutSec;
-        private PoolExceptionPolicy poolExceptionPolicy;
-        private AtomicInteger taskNums = new AtomicInteger(0);
-        private long beginTime;
-        private long endTime;
-        private long lastMillis;
-        private volatile int taskStatus;//0未执行1执行中2执行完毕
-        private List<Future<T>>  futures = new CopyOnWriteArrayList<>();
-        List<T> results = new Vector<>();
-        private List<Exception> exs = new Vector<>();
-        private CountDownLatchHerlper(String taskName, int timeoutSec,PoolExceptionPolicy poolExceptionPolicy){
-            this.taskName  = taskName;
-            this.timeoutSec = timeoutSec;
-            this.poolExceptionPolicy = poolExceptionPolicy;
+
+    /**
+     * 超时时间从第一次addTask开始计算，当前线程有截止时间时取两者中较早的
+     * 任务中再提交的任务和helper共用这一截止时间
+     */
+    public static CountDownLatchHerlper getResultHelper(String taskName, long timeout, TimeUnit unit, PoolExceptionPolicy poolExceptionPolicy){
+        return new CountDownLatchHerlper(taskName, unit.toNanos(timeout), poolExceptionPolicy);
+    }
+    public static ResultVoidHerlper getVoidHelper(String taskName, long timeout, TimeUnit unit, PoolExceptionPolicy poolExceptionPolicy){
+        return new ResultVoidHerlper(taskName, unit.toNanos(timeout), poolExceptionPolicy);
+    }
+
+    /**
+     * 截止时间，在call/run内以及其中通过submit、helper、pipeline提交的任务内生效，execute提交的任务不传递
+     * 嵌套时取较早的截止时间，嵌套的helper共用调用方剩余的时间，不会各自重新计时
+     */
+    public static final class Deadline {
+        private final long deadlineNanos;
+
+        private Deadline(long deadlineNanos) {
+            this.deadlineNanos = deadlineNanos;
         }
-        public CountDownLatchHerlper addTask(Callable<T> call){
-            if(taskNums.addAndGet(1) ==1){
-                beginTime = System.currentTimeMillis();
-                lastMillis = beginTime+timeoutSec*1000;
+
+        public static Deadline after(long timeout, TimeUnit unit) {
+            return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+        }
+
+        /**
+         * 当前线程的截止时间，没有时返回空
+         */
+        public static Deadline current() {
+            return CURRENT_DEADLINE.get();
+        }
+
+        public long remaining(TimeUnit unit) {
+            return unit.convert(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        }
+
+        public boolean isExpired() {
+            return deadlineNanos - System.nanoTime() <= 0;
+        }
+
+        /**
+         * 较早的截止时间，other为空时返回自身
+         */
+        public Deadline min(Deadline other) {
+            return other == null || deadlineNanos - other.deadlineNanos <= 0 ? this : other;
+        }
+
+        public <T> T call(Callable<T> callable) throws Exception {
+            Deadline previous = CURRENT_DEADLINE.get();
+            CURRENT_DEADLINE.set(min(previous));
+            try {
+                return callable.call();
+            } finally {
+                restore(previous);
             }
-            if(this.taskStatus == 2){
-                throw new RuntimeException("任务已执行完毕，无法添加任务");
+        }
+
+        public void run(Runnable runnable) {
+            Deadline previous = CURRENT_DEADLINE.get();
+            CURRENT_DEADLINE.set(min(previous));
+            try {
+                runnable.run();
+            } finally {
+                restore(previous);
             }
-            this.taskStatus = 1;
-            futures.add(submit(taskName, call));
+        }
+
+        /**
+         * 在执行线程中生效，开始执行时已到期则不执行，抛出TimeoutException
+         */
+        private <T> Callable<T> bind(Callable<T> callable) {
+            return () -> {
+                if (isExpired()) {
+                    throw new TimeoutException("执行任务超时！");
+                }
+                return call(callable);
+            };
+        }
+
+        private static void restore(Deadline previous) {
+            if (previous == null) {
+                CURRENT_DEADLINE.remove();
+            } else {
+                CURRENT_DEADLINE.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 流式处理，source → stage → batch → sink，各步骤之间通过有界队列连接
+     * 下游处理不过来时上游阻塞，内存中的数据不超过 队列长度×步骤数，适用于数据库游标、文件等无法一次加载的数据
+     * 任务异常按poolExceptionPolicy处理：IGNORE跳过该元素，SHUTDOWN取消全部步骤并抛出，RETURNRULSTNOW取消全部步骤并返回
+     * @param queueCapacity 每个步骤输出队列的长度
+     */
+    public static <T> Pipeline<T> pipeline(String taskName, Iterator<? extends T> source, int queueCapacity, PoolExceptionPolicy poolExceptionPolicy) {
+        PipelineContext context = new PipelineContext(taskName, Math.max(queueCapacity, 1), poolExceptionPolicy);
+        context.steps.add(new SourceStep(source));
+        return new Pipeline<>(context);
+    }
+
+    /**
+     * 按顺序调用stage、batch，最后调用sink开始执行
+     * 每个步骤使用单独的守护线程，步骤之间阻塞等待，不占用线程池，避免fork-join线程池中阻塞导致的死锁
+     */
+    public static class Pipeline<T> {
+        private final PipelineContext context;
+
+        private Pipeline(PipelineContext context) {
+            this.context = context;
+        }
+
+        /**
+         * 是否按source的顺序输出 默认是
+         * 按顺序输出时并行的步骤中一个元素较慢，后续元素最多积压 队列长度+并行数 个
+         */
+        public Pipeline<T> ordered(boolean ordered) {
+            context.ordered = ordered;
             return this;
         }
 
-        public List<T> getTaskResults() throws TimeoutException{
-            for(Future<T> t :futures ){
-                try {
-                    if(lastMillis < System.currentTimeMillis()){
-                        throw new TimeoutException("执行任务超时！");
+        public <R> Pipeline<R> stage(Function<? super T, ? extends R> fn, int parallelism) {
+            context.steps.add(new MapStep(fn, Math.max(parallelism, 1)));
+            return new Pipeline<>(context);
+        }
+
+        public Pipeline<List<T>> batch(int size) {
+            context.steps.add(new BatchStep(Math.max(size, 1)));
+            return new Pipeline<>(context);
+        }
+
+        /**
+         * 在调用线程中消费，阻塞到全部处理完成
+         * @return sink处理的元素数
+         */
+        public long sink(Consumer<? super T> consumer, int timeoutSec) throws TimeoutException {
+            return sink(consumer, timeoutSec, TimeUnit.SECONDS);
+        }
+
+        /**
+         * 当前线程有截止时间时取两者中较早的，各步骤中提交的任务共用这一截止时间
+         */
+        public long sink(Consumer<? super T> consumer, long timeout, TimeUnit unit) throws TimeoutException {
+            return context.run((Consumer<Object>) consumer, Deadline.after(timeout, unit).min(CURRENT_DEADLINE.get()));
+        }
+
+        /**
+         * 取消执行，sink抛出CancellationException
+         */
+        public void cancel() {
+            context.fail(new CancellationException("任务已取消"));
+        }
+
+        public List<Exception> getExs() {
+            return new ArrayList<>(context.exs);
+        }
+    }
+
+    private static class PipelineItem {
+        private static final PipelineItem END = new PipelineItem(-1, null, false);
+        private final long seq;
+        private final Object value;
+        //处理异常被跳过，按顺序输出时用于推进序号
+        private final boolean skip;
+
+        private PipelineItem(long seq, Object value, boolean skip) {
+            this.seq = seq;
+            this.value = value;
+            this.skip = skip;
+        }
+    }
+
+    private interface PipelineStep {
+        BlockingQueue<PipelineItem> start(BlockingQueue<PipelineItem> in, PipelineContext context, int index);
+    }
+
+    private static class PipelineContext {
+        private final String taskName;
+        private final int queueCapacity;
+        private final PoolExceptionPolicy poolExceptionPolicy;
+        private final List<PipelineStep> steps = new ArrayList<>();
+        private final Queue<Thread> threads = new ConcurrentLinkedQueue<>();
+        private final Queue<Exception> exs = new ConcurrentLinkedQueue<>();
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private volatile boolean ordered = true;
+        private volatile boolean started;
+        private volatile Deadline deadline;
+
+        private PipelineContext(String taskName, int queueCapacity, PoolExceptionPolicy poolExceptionPolicy) {
+            this.taskName = taskName;
+            this.queueCapacity = queueCapacity;
+            this.poolExceptionPolicy = poolExceptionPolicy;
+        }
+
+        private long run(Consumer<Object> consumer, Deadline deadline) throws TimeoutException {
+            if (started) {
+                throw new RuntimeException("任务已执行，无法再次执行");
+            }
+            started = true;
+            this.deadline = deadline;
+            BlockingQueue<PipelineItem> queue = null;
+            for (int i = 0; i < steps.size(); i++) {
+                queue = steps.get(i).start(queue, this, i);
+            }
+            long count = 0;
+            //sink在调用线程中执行，同样使用该截止时间
+            Deadline previous = CURRENT_DEADLINE.get();
+            CURRENT_DEADLINE.set(deadline);
+            try {
+                for (; ; ) {
+                    long remain = deadline.remaining(TimeUnit.MILLISECONDS);
+                    if (deadline.isExpired()) {
+                        TimeoutException timeout = new TimeoutException("执行任务超时！");
+                        exs.add(timeout);
+                        fail(timeout);
+                        throw timeout;
                     }
-                    if(t.isDone()){
-                        results.add(t.get());
-                    }else{
-                        results.add(t.get(lastMillis-System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+                    //失败时上游线程已中断，定时检查避免一直等待
+                    PipelineItem item = queue.poll(Math.max(Math.min(remain, 100), 1), TimeUnit.MILLISECONDS);
+                    Exception e = failure.get();
+                    if (e != null) {
+                        return stopped(e, count);
                     }
-                }  catch (TimeoutException e) {
-                    this.taskStatus = 3;
-                    if(PoolExceptionPolicy.SHUTDOWN.equals(poolExceptionPolicy)){
-                        throw e;
+                    if (item == PipelineItem.END) {
+                        return count;
                     }
-                    logger.error("执行异常，根据执行策略，直接返回现有结果", e);
-                    results = getTaskRes();
-                    this.exs.add(e);
-                    throw e;
-                }catch (Exception e) {
-                    this.taskStatus = 3;
-                    if(PoolExceptionPolicy.SHUTDOWN.equals(poolExceptionPolicy)){
-                        this.endTime = System.currentTimeMillis();
-                        throw new RuntimeException(e);
+                    if (item == null || item.skip) {
+                        continue;
                     }
-                    if(PoolExceptionPolicy.RETURNRULSTNOW.equals(poolExceptionPolicy)){
-                        logger.error("执行异常，根据执行策略，直接返回现有结果", e);
-                        results = getTaskRes();
-                        this.exs.add(e);
-                        this.endTime = System.currentTimeMillis();
-                        return results;
+                    try {
+                        consumer.accept(item.value);
+                        count++;
+                    } catch (Exception ex) {
+                        if (!onError(ex)) {
+                            return stopped(failure.get(), count);
+                        }
                     }
-                    if(PoolExceptionPolicy.IGNORE.equals(poolExceptionPolicy)){
-                        logger.error("执行异常，根据执行策略，继续执行", e);
-                        this.exs.add(e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+                throw new RuntimeException(e);
+            } finally {
+                Deadline.restore(previous);
+            }
+        }
+
+        private long stopped(Exception e, long count) {
+            if (e instanceof CancellationException) {
+                throw (CancellationException) e;
+            }
+            if (PoolExceptionPolicy.RETURNRULSTNOW.equals(poolExceptionPolicy)) {
+                logger.error("执行异常，根据执行策略，直接返回现有结果", e);
+                return count;
+            }
+            throw new RuntimeException(e);
+        }
+
+        /**
+         * @return 是否继续处理
+         */
+        private boolean onError(Exception e) {
+            exs.add(e);
+            if (PoolExceptionPolicy.IGNORE.equals(poolExceptionPolicy)) {
+                logger.error("执行异常，根据执行策略，继续执行", e);
+                return true;
+            }
+            fail(e);
+            return false;
+        }
+
+        private void fail(Exception e) {
+            if (!failure.compareAndSet(null, e)) {
+                return;
+            }
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+
+        private boolean isFailed() {
+            return failure.get() != null;
+        }
+
+        private void startThread(String name, Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                try {
+                    deadline.run(runnable);
+                } catch (Exception e) {
+                    onError(e);
+                }
+            }, taskName + "-" + name);
+            thread.setDaemon(true);
+            threads.add(thread);
+            //线程加入后再检查，失败时的中断不会遗漏
+            if (isFailed()) {
+                return;
+            }
+            thread.start();
+        }
+    }
+
+    private static class SourceStep implements PipelineStep {
+        private final Iterator<?> source;
+
+        private SourceStep(Iterator<?> source) {
+            this.source = source;
+        }
+
+        @Override
+        public BlockingQueue<PipelineItem> start(BlockingQueue<PipelineItem> in, PipelineContext context, int index) {
+            BlockingQueue<PipelineItem> out = new ArrayBlockingQueue<>(context.queueCapacity);
+            context.startThread("source", () -> {
+                long seq = 0;
+                try {
+                    for (; ; ) {
+                        Object value;
+                        try {
+                            if (!source.hasNext()) {
+                                break;
+                            }
+                            value = source.next();
+                        } catch (Exception e) {
+                            //读取异常后无法继续读取，IGNORE时按读取完毕处理
+                            if (context.onError(e)) {
+                                break;
+                            }
+                            return;
+                        }
+                        out.put(new PipelineItem(seq++, value, false));
                     }
+                    out.put(PipelineItem.END);
+                } catch (InterruptedException e) {
+                    //已取消
                 }
+            });
+            return out;
+        }
+    }
+
+    private static class MapStep implements PipelineStep {
+        private final Function<Object, Object> fn;
+        private final int parallelism;
+
+        private MapStep(Function<?, ?> fn, int parallelism) {
+            this.fn = (Function<Object, Object>) fn;
+            this.parallelism = parallelism;
+        }
+
+        @Override
+        public BlockingQueue<PipelineItem> start(BlockingQueue<PipelineItem> in, PipelineContext context, int index) {
+            BlockingQueue<PipelineItem> out = new ArrayBlockingQueue<>(context.queueCapacity);
+            //并行且按顺序输出时重排序，单线程处理本身有序，只需重新编号
+            Reorderer reorderer = context.ordered ? new Reorderer(out, parallelism > 1 ? context.queueCapacity + parallelism : 0) : null;
+            AtomicInteger running = new AtomicInteger(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                context.startThread("stage" + index + "-" + i, () -> {
+                    try {
+                        for (; ; ) {
+                            if (reorderer != null) {
+                                reorderer.acquire();
+                            }
+                            PipelineItem item = in.take();
+                            if (item == PipelineItem.END) {
+                                //放回供同一步骤的其他线程读取
+                                in.put(item);
+                                if (reorderer != null) {
+                                    reorderer.release();
+                                }
+                                break;
+                            }
+                            PipelineItem result = item;
+                            if (!item.skip) {
+                                try {
+                                    result = new PipelineItem(item.seq, fn.apply(item.value), false);
+                                } catch (Exception e) {
+                                    if (!context.onError(e)) {
+                                        return;
+                                    }
+                                    result = new PipelineItem(item.seq, null, true);
+                                }
+                            }
+                            if (reorderer != null) {
+                                reorderer.emit(result);
+                            } else if (!result.skip) {
+                                out.put(result);
+                            }
+                        }
+                        if (running.decrementAndGet() == 0) {
+                            out.put(PipelineItem.END);
+                        }
+                    } catch (InterruptedException e) {
+                        //已取消
+                    }
+                });
             }
-            if(this.taskStatus  == 1){
-                this.taskStatus =2;
+            return out;
+        }
+    }
+
+    private static class BatchStep implements PipelineStep {
+        private final int size;
+
+        private BatchStep(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public BlockingQueue<PipelineItem> start(BlockingQueue<PipelineItem> in, PipelineContext context, int index) {
+            BlockingQueue<PipelineItem> out = new ArrayBlockingQueue<>(context.queueCapacity);
+            context.startThread("batch" + index, () -> {
+                long seq = 0;
+                List<Object> batch = new ArrayList<>(size);
+                try {
+                    for (; ; ) {
+                        PipelineItem item = in.take();
+                        if (item == PipelineItem.END) {
+                            break;
+                        }
+                        if (item.skip) {
+                            continue;
+                        }
+                        batch.add(item.value);
+                        if (batch.size() == size) {
+                            out.put(new PipelineItem(seq++, batch, false));
+                            batch = new ArrayList<>(size);
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        out.put(new PipelineItem(seq, batch, false));
+                    }
+                    out.put(PipelineItem.END);
+                } catch (InterruptedException e) {
+                    //已取消
+                }
+            });
+            return out;
+        }
+    }
+
+    /**
+     * 按输入序号输出，跳过的元素不输出，输出时重新编号保证下游序号连续
+     * window限制已读取未输出的元素数，避免一个慢元素导致积压无限增长
+     */
+    private static class Reorderer {
+        private final BlockingQueue<PipelineItem> out;
+        private final Semaphore window;
+        private final Map<Long, PipelineItem> pending = new HashMap<>();
+        private long next;
+        private long outSeq;
+
+        private Reorderer(BlockingQueue<PipelineItem> out, int window) {
+            this.out = out;
+            this.window = window > 0 ? new Semaphore(window) : null;
+        }
+
+        private void acquire() throws InterruptedException {
+            if (window != null) {
+                window.acquire();
             }
-            this.endTime = System.currentTimeMillis();
-            logger.debug("执行任务结束执行任务完成时间为"+(this.endTime-this.beginTime)+"&总执行任务数："+taskNums);
-            return results;
         }
-        private List<T> getTaskRes(){
-            List<T> results = new ArrayList<>();
-            for(Future<T> t :futures ){
-                if(t.isDone()){
+
+        private void release() {
+            if (window != null) {
+                window.release();
+            }
+        }
+
+        private synchronized void emit(PipelineItem item) throws InterruptedException {
+            pending.put(item.seq, item);
+            PipelineItem ready;
+            while ((ready = pending.remove(next)) != null) {
+                next++;
+                release();
+                if (!ready.skip) {
+                    out.put(new PipelineItem(outSeq++, ready.value, false));
+                }
+            }
+        }
+    }
+
+    /**
+     * 按完成顺序处理任务结果，任一任务失败时立即按策略处理，不需要等待之前提交的任务
+     * SHUTDOWN和RETURNRULSTNOW在第一个失败时取消其余任务，超时同样取消其余任务
+     * 返回的结果按提交顺序排列，只包含成功的任务
+     */
+    private static class TaskCollector<T> {
+        private final String taskName;
+        private final long timeoutNanos;
+        private final PoolExceptionPolicy poolExceptionPolicy;
+        private final AtomicInteger taskNums = new AtomicInteger(0);
+        private final Queue<Task<T>> tasks = new ConcurrentLinkedQueue<>();
+        private final Queue<Exception> exs = new ConcurrentLinkedQueue<>();
+        private final CompletableFuture<Throwable> firstFailure = new CompletableFuture<>();
+        private volatile Consumer<T> resultListener;
+        private volatile long beginTime;
+        private volatile long endTime;
+        private volatile Deadline deadline;
+        private volatile int taskStatus;//0未执行1执行中2执行完毕3执行中有异常
+
+        private TaskCollector(String taskName, long timeoutNanos, PoolExceptionPolicy poolExceptionPolicy) {
+            this.taskName = taskName;
+            this.timeoutNanos = timeoutNanos;
+            this.poolExceptionPolicy = poolExceptionPolicy;
+        }
+
+        private void add(Callable<T> call) {
+            if (this.taskStatus >= 2) {
+                throw new RuntimeException("任务已执行完毕，无法添加任务");
+            }
+            if (taskNums.incrementAndGet() == 1) {
+                beginTime = System.currentTimeMillis();
+                deadline = Deadline.after(timeoutNanos, TimeUnit.NANOSECONDS).min(CURRENT_DEADLINE.get());
+            }
+            this.taskStatus = 1;
+            Task<T> task = new Task<>();
+            tasks.add(task);
+            try {
+                task.future = submit(taskName, () -> {
+                    //提交前已被取消
+                    if (!task.start()) {
+                        return null;
+                    }
                     try {
-                        results.add(t.get());
-                    } catch (InterruptedException  | ExecutionException e ) {
-                        // just ignore
+                        T result = call.call();
+                        if (task.result.complete(result)) {
+                            notifyResult(result);
+                        }
+                    } catch (Throwable e) {
+                        if (task.result.completeExceptionally(e)) {
+                            exs.add(new ExecutionException(e));
+                            firstFailure.complete(e);
+                        }
+                    } finally {
+                        task.finish();
                     }
-                }else {
-                    t.cancel(true);
+                    return null;
+                }, deadline);
+            } catch (RejectedExecutionException e) {
+                //按任务失败处理，避免等待永远不会执行的任务
+                task.result.completeExceptionally(e);
+                exs.add(new ExecutionException(e));
+                firstFailure.complete(e);
+                throw e;
+            }
+        }
+
+        private void notifyResult(T result) {
+            Consumer<T> listener = resultListener;
+            if (listener == null) {
+                return;
+            }
+            try {
+                listener.accept(result);
+            } catch (Exception e) {
+                logger.error(taskName + " result listener error", e);
+            }
+        }
+
+        /**
+         * @return 返回空表示SHUTDOWN以外的策略遇到异常后直接返回现有结果
+         */
+        private List<T> await() throws TimeoutException {
+            List<Task<T>> snapshot = new ArrayList<>(tasks);
+            CompletableFuture<?>[] results = new CompletableFuture<?>[snapshot.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = snapshot.get(i).result;
+            }
+            CompletableFuture<Void> all = CompletableFuture.allOf(results);
+            CompletableFuture<?> until = PoolExceptionPolicy.IGNORE.equals(poolExceptionPolicy) ? all : CompletableFuture.anyOf(all, firstFailure);
+            try {
+                long remain = deadline == null ? 0 : deadline.remaining(TimeUnit.NANOSECONDS);
+                if (remain <= 0 && !until.isDone()) {
+                    throw new TimeoutException("执行任务超时！");
+                }
+                until.get(remain, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                this.taskStatus = 3;
+                cancelRemaining(snapshot);
+                this.endTime = System.currentTimeMillis();
+                TimeoutException timeout = new TimeoutException("执行任务超时！");
+                this.exs.add(timeout);
+                throw timeout;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.taskStatus = 3;
+                cancelRemaining(snapshot);
+                this.endTime = System.currentTimeMillis();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                //有任务失败，下面按策略处理
+            }
+            Throwable failure = firstFailure.getNow(null);
+            if (failure != null) {
+                this.taskStatus = 3;
+                if (PoolExceptionPolicy.SHUTDOWN.equals(poolExceptionPolicy)) {
+                    cancelRemaining(snapshot);
+                    this.endTime = System.currentTimeMillis();
+                    throw new RuntimeException(failure);
+                }
+                if (PoolExceptionPolicy.RETURNRULSTNOW.equals(poolExceptionPolicy)) {
+                    logger.error("执行异常，根据执行策略，直接返回现有结果", failure);
+                    cancelRemaining(snapshot);
+                    this.endTime = System.currentTimeMillis();
+                    return null;
+                }
+                for (Exception e : exs) {
+                    logger.error("执行异常，根据执行策略，继续执行", e.getCause());
+                }
+            }
+            if (this.taskStatus == 1) {
+                this.taskStatus = 2;
+            }
+            this.endTime = System.currentTimeMillis();
+            logger.debug("执行任务结束执行任务完成时间为" + (this.endTime - this.beginTime) + "&总执行任务数：" + taskNums);
+            return completed(snapshot);
+        }
+
+        private List<T> completed() {
+            return completed(new ArrayList<>(tasks));
+        }
+
+        private List<T> completed(List<Task<T>> snapshot) {
+            List<T> results = new ArrayList<>(snapshot.size());
+            for (Task<T> task : snapshot) {
+                if (task.result.isDone() && !task.result.isCompletedExceptionally()) {
+                    results.add(task.result.join());
                 }
             }
             return results;
         }
+
+        private void cancelRemaining(List<Task<T>> snapshot) {
+            for (Task<T> task : snapshot) {
+                task.cancel();
+            }
+        }
+
+        private long getTaskExecuteTime() {
+            if (this.taskStatus != 2 && this.taskStatus != 3) {
+                throw new RuntimeException("执行异常，任务未完成无法获取执行时间");
+            }
+            return this.endTime - this.beginTime;
+        }
+    }
+
+    /**
+     * fork-join的Future.cancel不会中断执行中的任务，取消时自行中断执行线程
+     */
+    private static class Task<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private volatile Future<?> future;
+        private Thread runner;
+
+        private synchronized boolean start() {
+            if (result.isDone()) {
+                return false;
+            }
+            runner = Thread.currentThread();
+            return true;
+        }
+
+        private synchronized void finish() {
+            runner = null;
+            //清除取消时设置的中断标记，线程继续执行线程池中的其他任务
+            if (result.isCancelled()) {
+                Thread.interrupted();
+            }
+        }
+
+        private synchronized void cancel() {
+            if (!result.cancel(false)) {
+                return;
+            }
+            if (runner != null) {
+                runner.interrupt();
+            } else if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    public static class CountDownLatchHerlper<T>{
+        private final TaskCollector<T> collector;
+        private volatile List<T> results = Collections.emptyList();
+        private CountDownLatchHerlper(String taskName, long timeoutNanos,PoolExceptionPolicy poolExceptionPolicy){
+            this.collector = new TaskCollector<>(taskName, timeoutNanos, poolExceptionPolicy);
+        }
+        public CountDownLatchHerlper addTask(Callable<T> call){
+            collector.add(call);
+            return this;
+        }
+
+        /**
+         * 每个任务成功后在执行任务的线程中回调，按完成顺序，需要在addTask之前设置
+         */
+        public CountDownLatchHerlper onResult(Consumer<T> listener){
+            collector.resultListener = listener;
+            return this;
+        }
+
+        public List<T> getTaskResults() throws TimeoutException{
+            try {
+                List<T> res = collector.await();
+                results = res != null ? res : collector.completed();
+            } catch (TimeoutException e) {
+                results = collector.completed();
+                throw e;
+            }
+            return results;
+        }
         public <V> V getResultWithDealer(Function<List<T>,V> fc)throws TimeoutException{
             return fc.apply(getTaskResults());
         }
         public long getTaskExecuteTime(){
-            if(this.taskStatus != 2 && this.taskStatus != 3){
-                throw new RuntimeException("执行异常，任务未完成无法获取执行时间");
-            }
-            return this.endTime-this.beginTime;
+            return collector.getTaskExecuteTime();
         }
 
         public int getTaskStatus() {
-            return taskStatus;
+            return collector.taskStatus;
         }
 
         public List<T> getResults() {
@@ -249,113 +1574,38 @@ public class ThreadPoolUtil {
         }
 
         public List<Exception> getExs() {
-            return exs;
+            return new ArrayList<>(collector.exs);
         }
     }
     public static class ResultVoidHerlper{
-        private String taskName;
-        private int timeoutSec;
-        private PoolExceptionPolicy poolExceptionPolicy;
-        private AtomicInteger taskNums = new AtomicInteger(0);
-        private long beginTime;
-        private long endTime;
-        private long lastMillis;
-        private volatile int taskStatus;//0未执行1执行中2执行完毕3执行中有异常
-        private List<Future<Integer>>  futures = new CopyOnWriteArrayList<>();
-        private List<Exception> exs = new Vector<>();
-        private ResultVoidHerlper(String taskName, int timeoutSec,PoolExceptionPolicy poolExceptionPolicy){
-            this.taskName  = taskName;
-            this.timeoutSec = timeoutSec;
-            this.poolExceptionPolicy = poolExceptionPolicy;
+        private final TaskCollector<Integer> collector;
+        private ResultVoidHerlper(String taskName, long timeoutNanos,PoolExceptionPolicy poolExceptionPolicy){
+            this.collector = new TaskCollector<>(taskName, timeoutNanos, poolExceptionPolicy);
         }
         public ResultVoidHerlper addTask(Runnable run){
-            if(taskNums.addAndGet(1) ==1){
-                beginTime = System.currentTimeMillis();
-                lastMillis = beginTime+timeoutSec*1000;
-            }
-            if(this.taskStatus >=2){
-                throw new RuntimeException("任务已执行完毕，无法添加任务");
-            }
-            this.taskStatus = 1;
-            Future<Integer> t = submit(taskName, () -> {
+            collector.add(() -> {
                 run.run();
                 return 1;
             });
-            futures.add(t);
             return this;
         }
         public void doneTask() throws TimeoutException {
-            if(this.taskStatus >=2){
+            if(collector.taskStatus >=2){
                 throw new RuntimeException("任务已执行完毕，无需再次执行");
             }
-            for (Future<Integer> t : futures) {
-                try {
-                    if (lastMillis < System.currentTimeMillis()) {
-                        throw new TimeoutException("执行任务超时！");
-                    }
-                    if(t.isDone()){
-                        continue;
-                    }
-                    t.get(lastMillis-System.currentTimeMillis(), TimeUnit.MILLISECONDS);
-                } catch (TimeoutException e) {
-                    this.taskStatus =3;
-                    this.endTime = System.currentTimeMillis();
-                    this.exs.add(e);
-                    doneInProgress();
-                    throw e;
-                } catch (Exception e) {
-                    this.taskStatus =3;
-                    if (PoolExceptionPolicy.SHUTDOWN.equals(poolExceptionPolicy)) {
-                        this.endTime = System.currentTimeMillis();
-                        doneInProgress();
-                        throw new RuntimeException(e);
-                    }
-                    if (PoolExceptionPolicy.RETURNRULSTNOW.equals(poolExceptionPolicy)) {
-                        logger.error("执行异常，根据执行策略，直接返回现有结果", e);
-                        this.exs.add(e);
-                        this.endTime = System.currentTimeMillis();
-                        doneInProgress();
-                        return;
-                    }
-                    if(PoolExceptionPolicy.IGNORE.equals(poolExceptionPolicy)){
-                        logger.error("执行异常，根据执行策略，继续执行", e);
-                        this.exs.add(e);
-                        continue;
-                    }
-                }
-                if(this.taskStatus  == 1){
-                    this.taskStatus =2;
-                }
-                this.endTime = System.currentTimeMillis();
-                logger.info("执行任务结束执行任务完成时间为" + (this.endTime - this.beginTime) + "&总执行任务数：" + taskNums);
-            }
-        }
-
-        private void doneInProgress() {
-            for(Future<Integer> t :futures ){
-                if(t.isDone()){
-                    continue;
-                }
-                t.cancel(true);
-
-            }
+            collector.await();
         }
 
         public long getTaskExecuteTime(){
-            if(this.taskStatus != 2 && this.taskStatus != 3){
-                throw new RuntimeException("执行异常，任务未完成无法获取执行时间");
-            }
-            return this.endTime-this.beginTime;
+            return collector.getTaskExecuteTime();
         }
 
         public int getTaskStatus() {
-            return taskStatus;
+            return collector.taskStatus;
         }
 
-
-
         public List<Exception> getExs() {
-            return exs;
+            return new ArrayList<>(collector.exs);
         }
 
     }